@@ -0,0 +1,179 @@
+package com.company;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.company.KMAC.*;
+
+/**
+ * Concurrent stress harness of CryptoService. A number of threads share one service and run a
+ * mix of every operation on it for a while; every result is checked against the answer the
+ * same operation gave on a single thread before the run (hash, signature and public key are
+ * deterministic, cryptograms must decrypt back to their data), and the shared points and keys
+ * must be unchanged at the end. Prints the throughput of every thread count, so the scaling
+ * across cores can be read off directly, and exits with 1 on the first wrong result.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar com.company.ConcurrencyStressHarness
+ *        [--threads 1,2,4,8] [--seconds 5] [--size 1024]
+ */
+public class ConcurrencyStressHarness {
+
+    private static final String PASSPHRASE = "concurrency harness";
+
+    private static final int OPERATIONS = 6;
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> options = parseOptions(args);
+        String[] threads = options.getOrDefault("threads",
+                "1," + Runtime.getRuntime().availableProcessors()).split(",");
+        long seconds = Long.parseLong(options.getOrDefault("seconds", "5"));
+        int size = Integer.parseInt(options.getOrDefault("size", "1024"));
+
+        Expected expected = new Expected(new CryptoService(), size);
+        double single = 0;
+        for (String n : threads) {
+            CryptoService service = new CryptoService(new SecureRandom());
+            double rate = run(service, expected, Integer.parseInt(n.trim()), seconds);
+            if (single == 0) single = rate / Integer.parseInt(n.trim());
+            System.out.printf("threads=%s ops_per_s=%.1f speedup=%.2f%n", n.trim(), rate, rate / single);
+        }
+        expected.checkUnchanged();
+        System.out.println("OK");
+    }
+
+    /************************************************************
+     *                       Known answers                      *
+     ************************************************************/
+
+    /**
+     * The answers of every operation computed on one thread, and copies of the shared inputs
+     * to check that no operation modified them.
+     */
+    private static final class Expected {
+        final byte[] data;
+        final byte[] s = CryptoService.privateKey(PASSPHRASE);
+        final Point V;
+        final BigInteger Vx;
+        final BigInteger Vy;
+        final byte[] digest;
+        final byte[][] signature;
+        final byte[] cryptogram;
+        final byte[] ecCryptogram;
+
+        Expected(CryptoService service, int size) {
+            data = new byte[size];
+            new SplittableRandom(487).nextBytes(data);
+            V = service.publicKeysEC(PASSPHRASE)[0];
+            Vx = V.getPx();
+            Vy = V.getPy();
+            digest = KMACXOF256("".getBytes(), data, 512, "D".getBytes());
+            signature = service.signEC(data, s);
+            cryptogram = service.encryptKMAC(data, PASSPHRASE.getBytes());
+            ecCryptogram = encryptEC(service, data, V);
+        }
+
+        void checkUnchanged() {
+            check(V.getPx().equals(Vx) && V.getPy().equals(Vy), "the shared public key changed");
+            check(ECArithmetic.compare(ECArithmetic.opposite(ECArithmetic.opposite(V)), V), "opposite is not an involution");
+            check(V.getPx().equals(Vx), "opposite changed its argument");
+        }
+    }
+
+    /************************************************************
+     *                         Workers                          *
+     ************************************************************/
+
+    // runs n threads on the service for the given time, returns the operations per second
+    private static double run(CryptoService service, Expected expected, int n, long seconds)
+            throws InterruptedException {
+        AtomicLong operations = new AtomicLong();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        Thread[] workers = new Thread[n];
+        for (int t = 0; t < n; t++) {
+            int first = t;
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = first; System.nanoTime() < deadline && failure.get() == null; i++) {
+                        operation(service, expected, i % OPERATIONS);
+                        operations.incrementAndGet();
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }, "stress-" + t);
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+        if (failure.get() != null) {
+            System.out.println("FAILED with " + n + " threads: " + failure.get());
+            failure.get().printStackTrace();
+            System.exit(1);
+        }
+        return operations.get() / elapsed;
+    }
+
+    // runs one operation and checks its result against the known answer
+    private static void operation(CryptoService service, Expected e, int op) {
+        switch (op) {
+            case 0 -> check(Arrays.equals(KMACXOF256("".getBytes(), e.data, 512, "D".getBytes()), e.digest),
+                    "hash differs");
+            case 1 -> check(Arrays.equals(service.decryptKMAC(service.encryptKMAC(e.data, PASSPHRASE.getBytes()),
+                    PASSPHRASE.getBytes()), e.data), "symmetric round trip differs");
+            case 2 -> check(Arrays.equals(service.decryptKMAC(e.cryptogram, PASSPHRASE.getBytes()), e.data),
+                    "symmetric decryption differs");
+            case 3 -> check(Arrays.equals(service.decryptEC(encryptEC(service, e.data, e.V), PASSPHRASE), e.data)
+                    && Arrays.equals(service.decryptEC(e.ecCryptogram, PASSPHRASE), e.data), "EC round trip differs");
+            case 4 -> {
+                byte[][] signature = service.signEC(e.data, e.s);
+                check(Arrays.equals(signature[0], e.signature[0]) && Arrays.equals(signature[1], e.signature[1]),
+                        "signature differs");
+                check(service.verifyEC(e.data, signature[0], signature[1], e.V), "signature does not verify");
+            }
+            case 5 -> check(ECArithmetic.compare(service.publicKeysEC(PASSPHRASE)[0], e.V), "public key differs");
+            default -> throw new IllegalArgumentException("Unknown operation " + op);
+        }
+    }
+
+    /************************************************************
+     *                      Helper Methods                      *
+     ************************************************************/
+
+    // encrypts to V with a fresh ephemeral key, as the EC encryption service does
+    private static byte[] encryptEC(CryptoService service, byte[] m, Point V) {
+        byte[] k = new byte[64];
+        new SecureRandom().nextBytes(k);
+        BigInteger Wx = ECArithmetic.exponentiationX(V, new BigInteger(k));
+        return service.encryptEC(m, EphemeralKeyPool.EphemeralKey.fromNonce(k), Wx);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new IllegalStateException(message);
+    }
+
+    // parses --name value pairs
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 == args.length) {
+                throw new IllegalArgumentException("Expected --option value pairs but got " + Arrays.toString(args));
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+}
@@ -0,0 +1,71 @@
+package com.company;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of the ed448 primitives: affine addition, fixed-base (s*G through the window table)
+ * and variable-base scalar multiplication, the x-only ladder, point decoding and the square
+ * root it relies on.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ECBenchmark {
+
+    private Point G;
+
+    private Point V;
+
+    private BigInteger scalar;
+
+    private byte[] encodedV;
+
+    private BigInteger radicand;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(487);
+        G = ECArithmetic.getG();
+        V = ECArithmetic.exponentiation(G, new BigInteger(446, random));
+        scalar = new BigInteger(511, random);
+        encodedV = ECArithmetic.encode(V);
+        radicand = V.getPy().pow(2).mod(ECArithmetic.getP());
+    }
+
+    @Benchmark
+    public Point add() {
+        return ECArithmetic.add(G, V);
+    }
+
+    @Benchmark
+    public Point exponentiationFixedBase() {
+        return ECArithmetic.toAffine(ECArithmetic.exponentiationG(scalar));
+    }
+
+    @Benchmark
+    public Point exponentiationVariableBase() {
+        return ECArithmetic.exponentiation(V, scalar);
+    }
+
+    @Benchmark
+    public BigInteger exponentiationX() {
+        return ECArithmetic.exponentiationX(V, scalar);
+    }
+
+    @Benchmark
+    public Point decode() {
+        return ECArithmetic.decode(encodedV);
+    }
+
+    @Benchmark
+    public BigInteger computeSqrt() {
+        return ECArithmetic.computeSqrt(radicand, ECArithmetic.getP(), false);
+    }
+}
@@ -0,0 +1,66 @@
+package com.company;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Throughput of the one shot SHAKE256, cSHAKE256 and KMACXOF256 functions over message sizes
+ * from 16 B to 64 MB, each producing a 512-bit output, and of KMACXOF256 against KMACXOF128
+ * on the incremental sponge.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class KMACBenchmark {
+
+    @Param({"16", "1024", "65536", "1048576", "67108864"})
+    public int size;
+
+    private byte[] message;
+
+    private final byte[] key = "benchmark key".getBytes();
+
+    private final byte[] functionName = "N".getBytes();
+
+    private final byte[] customization = "D".getBytes();
+
+    @Setup
+    public void setup() {
+        message = new byte[size];
+        new Random(487).nextBytes(message);
+    }
+
+    @Benchmark
+    public byte[] shake256() {
+        return KMAC.SHAKE256(message, 512);
+    }
+
+    @Benchmark
+    public byte[] cshake256() {
+        return KMAC.cSHAKE256(message, 512, functionName, customization);
+    }
+
+    @Benchmark
+    public byte[] kmacxof256() {
+        return KMAC.KMACXOF256(key, message, 512, customization);
+    }
+
+    @Benchmark
+    public byte[] kmacxof256Sponge() {
+        Sponge sponge = KMAC.KMACXOF256Sponge(key, customization);
+        sponge.absorb(message);
+        return sponge.squeeze(64);
+    }
+
+    @Benchmark
+    public byte[] kmacxof128Sponge() {
+        Sponge sponge = KMAC.KMACXOF128Sponge(key, customization);
+        sponge.absorb(message);
+        return sponge.squeeze(32);
+    }
+}
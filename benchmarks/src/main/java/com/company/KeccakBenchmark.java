@@ -0,0 +1,47 @@
+package com.company;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of a single Keccak-f[1600] permutation (24 rounds), through KMAC.keccak on the selected
+ * engine and on each engine of KeccakEngines.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class KeccakBenchmark {
+
+    @Param({"reference", "compact", "unrolled", "complementing", "vector"})
+    public String engine;
+
+    private KeccakEngine permutation;
+
+    private long[] state;
+
+    @Setup
+    public void setup() {
+        permutation = KeccakEngines.byName(engine);
+        Random random = new Random(487);
+        state = new long[25];
+        for (int i = 0; i < state.length; i++) {
+            state[i] = random.nextLong();
+        }
+    }
+
+    @Benchmark
+    public long[] keccak() {
+        return KMAC.keccak(state, 1600, 24);
+    }
+
+    @Benchmark
+    public long[] engine() {
+        permutation.permute(state);
+        return state;
+    }
+}
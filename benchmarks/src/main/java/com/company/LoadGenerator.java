@@ -0,0 +1,190 @@
+package com.company;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Local load generator for the {@link CryptoDaemon}. Every connection keeps a fixed number of
+ * pipelined requests in flight and records the latency of every response; the run ends with the
+ * throughput and the p50, p99 and p999 latencies.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar com.company.LoadGenerator
+ *        [--address 7487|host:port|socket path] [--embedded] [--op hash] [--size 1024]
+ *        [--connections 4] [--pipeline 16] [--requests 100000] [--warmup 10000]
+ * --embedded starts a daemon on an ephemeral loopback port inside the generator's JVM, the
+ * ops are hash, mac, encrypt, decrypt, ec-encrypt, ec-decrypt, sign and verify.
+ */
+public class LoadGenerator {
+
+    private static final byte[] PASSPHRASE = "load generator".getBytes();
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        String op = options.getOrDefault("op", "hash");
+        int size = Integer.parseInt(options.getOrDefault("size", "1024"));
+        int connections = Integer.parseInt(options.getOrDefault("connections", "4"));
+        int pipeline = Integer.parseInt(options.getOrDefault("pipeline", "16"));
+        int requests = Integer.parseInt(options.getOrDefault("requests", "100000"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "10000"));
+
+        CryptoDaemon daemon = null;
+        SocketAddress address;
+        if (options.containsKey("embedded")) {
+            daemon = new CryptoDaemon(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                    new Keyring(Keyring.DEFAULT_CACHE_SIZE));
+            daemon.warmup(0);
+            address = daemon.getLocalAddress();
+            CryptoDaemon embedded = daemon;
+            Thread server = new Thread(() -> {
+                try {
+                    embedded.serve();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }, "embedded-daemon");
+            server.setDaemon(true);
+            server.start();
+        } else {
+            address = CryptoDaemon.address(options.getOrDefault("address", String.valueOf(CryptoDaemon.DEFAULT_PORT)));
+        }
+
+        CryptoClient[] clients = new CryptoClient[connections];
+        for (int i = 0; i < connections; i++) {
+            clients[i] = new CryptoClient(address);
+        }
+        try {
+            Request request = request(op, size, clients[0]);
+            run(clients, request, pipeline, warmup);
+            long start = System.nanoTime();
+            long[] latencies = run(clients, request, pipeline, requests);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            Arrays.sort(latencies);
+            System.out.printf("op=%s size=%d connections=%d pipeline=%d requests=%d%n",
+                    op, size, connections, pipeline, latencies.length);
+            System.out.printf("throughput %.1f req/s, %.2f MB/s%n",
+                    latencies.length / seconds, (double) latencies.length * size / seconds / 1e6);
+            System.out.printf("latency us: p50 %.1f  p99 %.1f  p999 %.1f  max %.1f%n",
+                    percentile(latencies, 0.50), percentile(latencies, 0.99),
+                    percentile(latencies, 0.999), latencies[latencies.length - 1] / 1e3);
+        } finally {
+            for (CryptoClient client : clients) {
+                client.close();
+            }
+            if (daemon != null) {
+                System.out.println(daemon);
+                daemon.close();
+            }
+        }
+    }
+
+    /************************************************************
+     *                          Driver                          *
+     ************************************************************/
+
+    // sends n requests spread over the connections and returns the latency of each in nanoseconds
+    private static long[] run(CryptoClient[] clients, Request request, int pipeline, int n) throws InterruptedException {
+        long[] latencies = new long[n];
+        List<Thread> drivers = new ArrayList<>();
+        for (int c = 0; c < clients.length; c++) {
+            CryptoClient client = clients[c];
+            int from = (int) ((long) n * c / clients.length);
+            int to = (int) ((long) n * (c + 1) / clients.length);
+            Thread driver = new Thread(() -> drive(client, request, pipeline, latencies, from, to), "load-" + c);
+            drivers.add(driver);
+            driver.start();
+        }
+        for (Thread driver : drivers) {
+            driver.join();
+        }
+        return latencies;
+    }
+
+    // keeps up to pipeline requests of one connection in flight until [from, to) are answered
+    private static void drive(CryptoClient client, Request request, int pipeline, long[] latencies, int from, int to) {
+        Semaphore inFlight = new Semaphore(pipeline);
+        try {
+            for (int i = from; i < to; i++) {
+                inFlight.acquire();
+                int slot = i;
+                long sent = System.nanoTime();
+                CompletableFuture<byte[][]> response = client.send(request.op, request.fields);
+                response.whenComplete((fields, failure) -> {
+                    latencies[slot] = System.nanoTime() - sent;
+                    if (failure != null) failure.printStackTrace();
+                    inFlight.release();
+                });
+            }
+            inFlight.acquire(pipeline);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /************************************************************
+     *                      Helper Methods                      *
+     ************************************************************/
+
+    private record Request(byte op, byte[][] fields) {
+    }
+
+    // the request of an op, preparing its cryptogram or signature once up front
+    private static Request request(String op, int size, CryptoClient client) {
+        byte[] data = new byte[size];
+        new SplittableRandom(42).nextBytes(data);
+        Point V = Main.publicKeysEC(new String(PASSPHRASE))[0];
+        byte[] encodedV = ECArithmetic.encode(V);
+        switch (op) {
+            case "hash":
+                return new Request(CryptoDaemon.HASH, new byte[][] {data});
+            case "mac":
+                return new Request(CryptoDaemon.MAC, new byte[][] {PASSPHRASE, data});
+            case "encrypt":
+                return new Request(CryptoDaemon.ENCRYPT, new byte[][] {PASSPHRASE, data});
+            case "decrypt":
+                return new Request(CryptoDaemon.DECRYPT, new byte[][] {PASSPHRASE, client.encrypt(PASSPHRASE, data)});
+            case "ec-encrypt":
+                return new Request(CryptoDaemon.EC_ENCRYPT, new byte[][] {encodedV, data});
+            case "ec-decrypt":
+                return new Request(CryptoDaemon.EC_DECRYPT, new byte[][] {PASSPHRASE, client.encryptEC(V, data)});
+            case "sign":
+                return new Request(CryptoDaemon.SIGN, new byte[][] {PASSPHRASE, data});
+            case "verify":
+                byte[][] signature = client.sign(PASSPHRASE, data);
+                return new Request(CryptoDaemon.VERIFY, new byte[][] {encodedV, data, signature[0], signature[1]});
+            default:
+                throw new IllegalArgumentException("Unknown op " + op);
+        }
+    }
+
+    // the latency at quantile q of the sorted latencies, in microseconds
+    private static double percentile(long[] sorted, double q) {
+        int index = (int) Math.ceil(q * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e3;
+    }
+
+    // parses --name value pairs, a flag without a value maps to "true"
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) throw new IllegalArgumentException("Unexpected argument " + args[i]);
+            String name = args[i].substring(2);
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                options.put(name, args[++i]);
+            } else {
+                options.put(name, "true");
+            }
+        }
+        return options;
+    }
+}
@@ -0,0 +1,310 @@
+package com.company;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.company.KMAC.*;
+
+/**
+ * End to end scalability and memory footprint harness. Generates synthetic input files from
+ * 1 KB up to 8 GB, drives every service path over them and appends one CSV row per operation
+ * and size with the throughput, the peak heap, the peak RSS and the GC activity. Operations
+ * that fail (e.g. OutOfMemoryError or an overflowing length) are recorded with their error
+ * instead of aborting the run, so the scaling curves of two releases can be compared directly.
+ *
+ * Usage: java -Xmx4g -cp benchmarks/target/benchmarks.jar com.company.ScalabilityHarness
+ *        [--sizes 1K,1M,1G,8G] [--ops hash,mac,...] [--dir data] [--out results.csv] [--repeat 1]
+ */
+public class ScalabilityHarness {
+
+    private static final String[] DEFAULT_SIZES = {"1K", "64K", "1M", "64M", "1G", "8G"};
+
+    private static final String[] ALL_OPS = {"hash", "hash-string", "mac", "encrypt", "decrypt", "ec-encrypt",
+            "ec-decrypt", "sign", "verify", "sign-prehash", "verify-prehash"};
+
+    private static final String PASSPHRASE = "scalability harness";
+
+    private static final String CSV_HEADER = "operation,size_bytes,repeat,status,seconds,mb_per_s,"
+            + "peak_heap_bytes,peak_rss_bytes,gc_count,gc_time_ms,max_gc_pause_ms,java_version";
+
+    private static final AtomicLong maxPauseMillis = new AtomicLong();
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = parseOptions(args);
+        String[] sizes = options.getOrDefault("sizes", String.join(",", DEFAULT_SIZES)).split(",");
+        String[] ops = options.getOrDefault("ops", String.join(",", ALL_OPS)).split(",");
+        Path dir = Path.of(options.getOrDefault("dir", "scalability-data"));
+        Path out = Path.of(options.getOrDefault("out", "scalability-results.csv"));
+        int repeat = Integer.parseInt(options.getOrDefault("repeat", "1"));
+
+        Files.createDirectories(dir);
+        listenForPauses();
+        boolean newFile = !Files.exists(out);
+        try (PrintWriter csv = new PrintWriter(Files.newBufferedWriter(out, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND))) {
+            if (newFile) csv.println(CSV_HEADER);
+            for (String size : sizes) {
+                long bytes = parseSize(size);
+                Path input = generate(dir, bytes);
+                Context context = new Context(input, dir);
+                for (int r = 0; r < repeat; r++) {
+                    for (String op : ops) {
+                        String row = measure(op, bytes, r, context);
+                        csv.println(row);
+                        csv.flush();
+                        System.out.println(row);
+                    }
+                }
+                context.clear();
+            }
+        }
+    }
+
+    /************************************************************
+     *                        Operations                        *
+     ************************************************************/
+
+    /**
+     * State shared by the operations of one input size, e.g. the cryptogram that decrypt needs.
+     */
+    private static final class Context {
+        final Path input;
+        final Path dir;
+        final byte[] s = CryptoService.privateKey(PASSPHRASE);
+        final Point V = Main.publicKeysEC(PASSPHRASE)[0];
+        final SecureRandom random = new SecureRandom();
+        byte[] cryptogram;
+        byte[][] signature;
+        byte[][] prehashSignature;
+
+        Context(Path input, Path dir) {
+            this.input = input;
+            this.dir = dir;
+        }
+
+        Path ecCryptogram() {
+            return dir.resolve("ec-cryptogram.bin");
+        }
+
+        void clear() throws IOException {
+            cryptogram = null;
+            signature = null;
+            prehashSignature = null;
+            Files.deleteIfExists(ecCryptogram());
+            Files.deleteIfExists(dir.resolve("ec-decrypted.bin"));
+        }
+    }
+
+    // runs one operation the same way the corresponding batch command does, on the raw bytes of
+    // the file; hash-string keeps the old curve of hashing the file read through fileToString
+    private static void run(String op, Context c) throws IOException {
+        File file = c.input.toFile();
+        switch (op) {
+            case "hash" -> KMACXOF256("".getBytes(), Main.fileToBytes(file), 512, "D".getBytes());
+            case "hash-string" -> KMACXOF256("".getBytes(), Main.fileToString(file).getBytes(), 512, "D".getBytes());
+            case "mac" -> KMACXOF256(PASSPHRASE.getBytes(), Main.fileToBytes(file), 512, "T".getBytes());
+            case "encrypt" -> c.cryptogram = Main.encryptKMAC(Main.fileToBytes(file), PASSPHRASE.getBytes());
+            case "decrypt" -> {
+                if (c.cryptogram == null) throw new IllegalStateException("encrypt did not produce a cryptogram");
+                Main.decryptKMAC(c.cryptogram, PASSPHRASE.getBytes());
+            }
+            case "ec-encrypt" -> {
+                byte[] k = new byte[64];
+                c.random.nextBytes(k);
+                EphemeralKeyPool.EphemeralKey key = EphemeralKeyPool.EphemeralKey.fromNonce(k);
+                BigInteger Wx = ECArithmetic.exponentiationX(c.V, new BigInteger(k));
+                try (FileChannel in = FileChannel.open(c.input, StandardOpenOption.READ)) {
+                    Main.encryptEC(in, key, Wx, c.ecCryptogram());
+                }
+            }
+            case "ec-decrypt" -> Main.decryptEC(c.ecCryptogram(), PASSPHRASE, c.dir.resolve("ec-decrypted.bin"));
+            case "sign" -> c.signature = Main.signEC(Main.fileToBytes(file), c.s);
+            case "verify" -> {
+                if (c.signature == null) throw new IllegalStateException("sign did not produce a signature");
+                if (!Main.verifyEC(Main.fileToBytes(file), c.signature[0], c.signature[1], c.V)) {
+                    throw new IllegalStateException("verification failed");
+                }
+            }
+            case "sign-prehash" -> c.prehashSignature = Main.signPrehashEC(c.input, c.s);
+            case "verify-prehash" -> {
+                if (c.prehashSignature == null) throw new IllegalStateException("sign-prehash did not produce a signature");
+                if (!Main.verifyPrehashEC(c.input, c.prehashSignature[0], c.prehashSignature[1], c.V)) {
+                    throw new IllegalStateException("verification failed");
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown operation: " + op);
+        }
+    }
+
+    /************************************************************
+     *                       Measurement                        *
+     ************************************************************/
+
+    // runs one operation and formats its CSV row
+    private static String measure(String op, long bytes, int repeat, Context context) {
+        System.gc();
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+        resetPeakRss();
+        long gcCount = gcCount();
+        long gcTime = gcTime();
+        maxPauseMillis.set(0);
+
+        String status = "ok";
+        long start = System.nanoTime();
+        try {
+            run(op, context);
+        } catch (Throwable t) {
+            status = t.getClass().getSimpleName();
+            if (t instanceof OutOfMemoryError) {
+                context.cryptogram = null;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peakHeap += pool.getPeakUsage().getUsed();
+        }
+        double mbPerSecond = "ok".equals(status) ? bytes / 1048576.0 / seconds : 0;
+        return String.join(",", op, Long.toString(bytes), Integer.toString(repeat), status,
+                String.format("%.6f", seconds), String.format("%.3f", mbPerSecond), Long.toString(peakHeap),
+                Long.toString(peakRss()), Long.toString(gcCount() - gcCount), Long.toString(gcTime() - gcTime),
+                Long.toString(maxPauseMillis.get()), System.getProperty("java.version"));
+    }
+
+    // records the longest GC pause reported while an operation runs
+    private static void listenForPauses() {
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter emitter) {
+                emitter.addNotificationListener((notification, handback) -> {
+                    if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                        GarbageCollectionNotificationInfo info =
+                                GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                        maxPauseMillis.accumulateAndGet(info.getGcInfo().getDuration(), Math::max);
+                    }
+                }, null, null);
+            }
+        }
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return time;
+    }
+
+    // resets the kernel's peak RSS counter (VmHWM) where Linux allows it
+    private static void resetPeakRss() {
+        try {
+            Files.writeString(Path.of("/proc/self/clear_refs"), "5");
+        } catch (IOException | UnsupportedOperationException e) {
+            // not Linux or not permitted, VmHWM is then the peak of the whole run
+        }
+    }
+
+    // peak resident set size in bytes from /proc/self/status, -1 where unavailable
+    private static long peakRss() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // not Linux
+        }
+        return -1;
+    }
+
+    /************************************************************
+     *                      Helper Methods                      *
+     ************************************************************/
+
+    // writes (or reuses) a pseudo random file of the given size
+    private static Path generate(Path dir, long bytes) throws IOException {
+        Path file = dir.resolve("input-" + bytes + ".bin");
+        if (Files.exists(file) && Files.size(file) == bytes) return file;
+
+        SplittableRandom random = new SplittableRandom(bytes);
+        byte[] chunk = new byte[1 << 20];
+        try (OutputStream out = Files.newOutputStream(file)) {
+            long remaining = bytes;
+            while (remaining > 0) {
+                for (int i = 0; i < chunk.length; i += 8) {
+                    long word = random.nextLong();
+                    for (int b = 0; b < 8; b++) {
+                        chunk[i + b] = (byte) (word >>> (8 * b));
+                    }
+                }
+                int n = (int) Math.min(chunk.length, remaining);
+                out.write(chunk, 0, n);
+                remaining -= n;
+            }
+        }
+        return file;
+    }
+
+    // parses sizes such as 512, 1K, 64M or 8G
+    private static long parseSize(String size) {
+        size = size.trim().toUpperCase();
+        long unit = switch (size.charAt(size.length() - 1)) {
+            case 'K' -> 1L << 10;
+            case 'M' -> 1L << 20;
+            case 'G' -> 1L << 30;
+            default -> 1;
+        };
+        String digits = unit == 1 ? size : size.substring(0, size.length() - 1);
+        return Long.parseLong(digits) * unit;
+    }
+
+    // parses --name value pairs
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 == args.length) {
+                throw new IllegalArgumentException("Expected --option value pairs but got " + Arrays.toString(args));
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+}
@@ -0,0 +1,62 @@
+package com.company;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * End to end cost of the symmetric cryptogram, encryptKMAC and decryptKMAC, over message sizes
+ * from 16 B to 64 MB, and of the in-place SymmetricCipher over one reused buffer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SymmetricBenchmark {
+
+    @Param({"16", "1024", "65536", "1048576", "67108864"})
+    public int size;
+
+    private byte[] message;
+
+    private byte[] cryptogram;
+
+    private final byte[] passphrase = "benchmark passphrase".getBytes();
+
+    private final SymmetricCipher cipher = new SymmetricCipher();
+
+    private byte[] buffer;
+
+    @Setup
+    public void setup() {
+        message = new byte[size];
+        new Random(487).nextBytes(message);
+        cryptogram = Main.encryptKMAC(message, passphrase);
+        buffer = new byte[size + SymmetricCipher.OVERHEAD];
+        System.arraycopy(message, 0, buffer, SymmetricCipher.NONCE_LENGTH, size);
+    }
+
+    @Benchmark
+    public byte[] encryptKMAC() {
+        return Main.encryptKMAC(message, passphrase);
+    }
+
+    @Benchmark
+    public byte[] decryptKMAC() {
+        return Main.decryptKMAC(cryptogram, passphrase);
+    }
+
+    @Benchmark
+    public int encryptInPlace() {
+        return cipher.encrypt(buffer, 0, size, passphrase);
+    }
+
+    @Benchmark
+    public int roundTripInPlace() {
+        int n = cipher.encrypt(buffer, 0, size, passphrase);
+        return cipher.decrypt(buffer, 0, n, passphrase);
+    }
+}
@@ -0,0 +1,319 @@
+package com.company;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.company.KMAC.*;
+
+/**
+ * Non-blocking facade of the hashing, encryption and signature services. Every operation is
+ * submitted to an executor and returns a CompletableFuture right away, so callers can submit
+ * thousands of jobs and compose the results without tying up their own threads.
+ *
+ * File operations run on the I/O executor (a virtual thread per task when the runtime has
+ * them), operations on data in memory run on the compute executor (by default a ForkJoinPool
+ * with one worker per core, since the EC math is CPU bound).
+ *
+ * At most maxInFlight operations are accepted at a time. Beyond that the returned future fails
+ * at once with a RejectedExecutionException instead of queueing without bound or blocking the
+ * caller. Cancelling a future interrupts its task; the file operations stop at their next read
+ * or write, an EC multiplication that already started runs to completion.
+ */
+public class AsyncCryptoService implements AutoCloseable {
+
+    /**
+     * default number of operations accepted at a time
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 1024;
+
+    private final ExecutorService ioExecutor;
+
+    private final ExecutorService computeExecutor;
+
+    private final Semaphore permits;
+
+    private final int maxInFlight;
+
+    private final EphemeralKeyPool ephemeralKeys;
+
+    private final CryptoService crypto = new CryptoService();
+
+    /**
+     * Creates a service on the given executors. Both are shut down by close().
+     * @param ioExecutor the executor of the file operations
+     * @param computeExecutor the executor of the operations on data in memory
+     * @param maxInFlight the number of operations accepted at a time
+     */
+    public AsyncCryptoService(final ExecutorService ioExecutor, final ExecutorService computeExecutor,
+                              final int maxInFlight) {
+        if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight must be positive.");
+        this.ioExecutor = ioExecutor;
+        this.computeExecutor = computeExecutor;
+        this.maxInFlight = maxInFlight;
+        this.permits = new Semaphore(maxInFlight);
+        this.ephemeralKeys = EphemeralKeyPool.fromSystemProperties(new SecureRandom());
+    }
+
+    /**
+     * Creates a service with virtual threads for I/O, a ForkJoinPool with one worker per core
+     * for the EC math and the default limit.
+     */
+    public AsyncCryptoService() {
+        this(newThreadPerTaskExecutor(), new ForkJoinPool(Runtime.getRuntime().availableProcessors()),
+                DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /************************************************************
+     *                           KMAC                           *
+     ************************************************************/
+
+    /**
+     * @param data the data
+     * @return the 512-bit KMACXOF256 digest of the data
+     */
+    public CompletableFuture<byte[]> hash(final byte[] data) {
+        return submit(computeExecutor, () -> KMACXOF256("".getBytes(), data, 512, "D".getBytes()));
+    }
+
+    /**
+     * @param file the file, streamed in chunks
+     * @return the 512-bit KMACXOF256 digest of the file
+     */
+    public CompletableFuture<byte[]> hashFile(final Path file) {
+        return submit(ioExecutor, () -> digest(file, "".getBytes(), "D".getBytes()));
+    }
+
+    /**
+     * @param data the data
+     * @param passphrase the key
+     * @return the 512-bit KMACXOF256 authentication tag of the data
+     */
+    public CompletableFuture<byte[]> mac(final byte[] data, final byte[] passphrase) {
+        return submit(computeExecutor, () -> KMACXOF256(passphrase, data, 512, "T".getBytes()));
+    }
+
+    /**
+     * @param file the file, streamed in chunks
+     * @param passphrase the key
+     * @return the 512-bit KMACXOF256 authentication tag of the file
+     */
+    public CompletableFuture<byte[]> macFile(final Path file, final byte[] passphrase) {
+        return submit(ioExecutor, () -> digest(file, passphrase, "T".getBytes()));
+    }
+
+    /**
+     * @param m the data
+     * @param passphrase the passphrase
+     * @return the symmetric cryptogram of the data
+     */
+    public CompletableFuture<byte[]> encrypt(final byte[] m, final byte[] passphrase) {
+        return submit(computeExecutor, () -> crypto.encryptKMAC(m, passphrase));
+    }
+
+    /**
+     * @param cryptogram the symmetric cryptogram
+     * @param passphrase the passphrase
+     * @return the decrypted data, fails with an IllegalArgumentException if the tags don't match
+     */
+    public CompletableFuture<byte[]> decrypt(final byte[] cryptogram, final byte[] passphrase) {
+        return submit(computeExecutor, () -> crypto.decryptKMAC(cryptogram, passphrase));
+    }
+
+    /************************************************************
+     *                            EC                            *
+     ************************************************************/
+
+    /**
+     * @param m the data
+     * @param V the public key of the recipient
+     * @return the cryptogram Z || c || t
+     */
+    public CompletableFuture<byte[]> encryptEC(final byte[] m, final Point V) {
+        return submit(computeExecutor, () -> {
+            EphemeralKeyPool.EphemeralKey k = ephemeralKeys.take();
+            BigInteger Wx = ECArithmetic.exponentiationX(V, new BigInteger(k.getK()));
+            return crypto.encryptEC(m, k, Wx);
+        });
+    }
+
+    /**
+     * @param input the file to be encrypted, streamed in chunks
+     * @param V the public key of the recipient
+     * @param output the file the cryptogram is written to
+     * @return the output file
+     */
+    public CompletableFuture<Path> encryptECFile(final Path input, final Point V, final Path output) {
+        return submit(ioExecutor, () -> {
+            EphemeralKeyPool.EphemeralKey k = ephemeralKeys.take();
+            BigInteger Wx = ECArithmetic.exponentiationX(V, new BigInteger(k.getK()));
+            try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+                crypto.encryptEC(in, k, Wx, output);
+            }
+            return output;
+        });
+    }
+
+    /**
+     * @param cryptogram the cryptogram Z || c || t
+     * @param passphrase the passphrase of the recipient
+     * @return the decrypted data, fails with an IllegalArgumentException if the tags don't match
+     */
+    public CompletableFuture<byte[]> decryptEC(final byte[] cryptogram, final String passphrase) {
+        return submit(computeExecutor, () -> crypto.decryptEC(cryptogram, passphrase));
+    }
+
+    /**
+     * @param input the cryptogram file
+     * @param passphrase the passphrase of the recipient
+     * @param output the file the decrypted data is written to, only once the tag has been checked
+     * @return the output file
+     */
+    public CompletableFuture<Path> decryptECFile(final Path input, final String passphrase, final Path output) {
+        return submit(ioExecutor, () -> {
+            crypto.decryptEC(input, passphrase, output);
+            return output;
+        });
+    }
+
+    /**
+     * @param data the data
+     * @param passphrase the passphrase of the signing key
+     * @return the signature {h, z}
+     */
+    public CompletableFuture<byte[][]> sign(final byte[] data, final String passphrase) {
+        return submit(computeExecutor, () -> crypto.signEC(data, CryptoService.privateKey(passphrase)));
+    }
+
+    /**
+     * Signs a file in prehash mode, see CryptoService.signPrehashEC.
+     * @param file the file
+     * @param passphrase the passphrase of the signing key
+     * @return the signature {h, z}
+     */
+    public CompletableFuture<byte[][]> signFile(final Path file, final String passphrase) {
+        return submit(ioExecutor, () -> crypto.signPrehashEC(file, CryptoService.privateKey(passphrase)));
+    }
+
+    /**
+     * @param data the data
+     * @param h the h of the signature
+     * @param z the z of the signature
+     * @param V the public key of the signer
+     * @return whether the signature is valid
+     */
+    public CompletableFuture<Boolean> verify(final byte[] data, final byte[] h, final byte[] z, final Point V) {
+        return submit(computeExecutor, () -> crypto.verifyEC(data, h, z, V));
+    }
+
+    /**
+     * Verifies a signature made by signFile.
+     * @param file the file
+     * @param h the h of the signature
+     * @param z the z of the signature
+     * @param V the public key of the signer
+     * @return whether the signature is valid
+     */
+    public CompletableFuture<Boolean> verifyFile(final Path file, final byte[] h, final byte[] z, final Point V) {
+        return submit(ioExecutor, () -> crypto.verifyPrehashEC(file, h, z, V));
+    }
+
+    /**
+     * Shuts both executors down, interrupting the running operations.
+     */
+    @Override
+    public void close() {
+        ioExecutor.shutdownNow();
+        computeExecutor.shutdownNow();
+        ephemeralKeys.close();
+    }
+
+    /************************************************************
+     *                      Helper Methods                      *
+     ************************************************************/
+
+    // runs a task on an executor under one permit, which is returned when the task ends or is
+    // cancelled before it started
+    private <T> CompletableFuture<T> submit(final ExecutorService executor, final Callable<T> task) {
+        if (!permits.tryAcquire()) {
+            return CompletableFuture.failedFuture(
+                    new RejectedExecutionException(maxInFlight + " operations are already in flight"));
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicBoolean started = new AtomicBoolean();
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) permits.release();
+        };
+
+        Future<?> running;
+        try {
+            running = executor.submit(() -> {
+                started.set(true);
+                try {
+                    if (!result.isDone()) result.complete(task.call());
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    release.run();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            release.run();
+            result.completeExceptionally(e);
+            return result;
+        }
+        result.whenComplete((value, failure) -> {
+            if (result.isCancelled()) {
+                running.cancel(true);
+                if (!started.get()) release.run();
+            }
+        });
+        return result;
+    }
+
+    // streams a file through KMACXOF256 and returns the 512-bit result
+    private static byte[] digest(final Path file, final byte[] key, final byte[] customString) throws IOException {
+        return absorbFile(KMACXOF256Sponge(key, customString), file).squeeze(64);
+    }
+
+    /**
+     * @return an executor running every task on its own virtual thread when the runtime has them,
+     *         otherwise a cached pool of platform daemon threads
+     */
+    public static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "crypto-io");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /************************************************************
+     *                         Getters                          *
+     ************************************************************/
+
+    public int getInFlight() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+}
@@ -0,0 +1,396 @@
+package com.company;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.company.KMAC.*;
+
+/**
+ * Non-interactive command line mode. Every entry (file) of a command is processed on a worker
+ * pool and one result line per entry is streamed to stdout in input order, so one JVM start and
+ * JIT warmup is shared by thousands of files.
+ *
+ * Usage: java com.company.Main COMMAND [options] [FILE...]
+ *   hash                      print the KMACXOF256 digest of the raw bytes of every file, the
+ *                             same digest as the interactive hash service
+ *   mac      --pass P         print the KMACXOF256 authentication tag of the raw bytes of every
+ *                             file, the same tag as the interactive MAC service
+ *   encrypt  --key PUB        EC encrypt every file to FILE.ec
+ *   encrypt  --pass P         symmetrically encrypt every file to FILE.kmac
+ *   decrypt  --pass P         decrypt every FILE.ec, FILE.kmac, FILE.ecz or FILE.kmacz back to FILE
+ *   keygen                    every entry is "name passphrase", prints "name publickey" lines
+ *                             (the indexed keyring format)
+ *   sign     --pass P         sign the raw bytes of every file to FILE.sig (--prehash for
+ *                             prehash mode)
+ *   verify   --key PUB        verify the raw bytes of every file against FILE.sig
+ *   verifybulk --key PUB      every entry is an indexed signature file written by bulk signing;
+ *                             verify all its signatures in one batch and list the files that fail
+ *   tree                      print the Merkle root of every file, keeping its tree in FILE.mt;
+ *                             an unchanged file is not read, a changed one is rehashed entirely
+ *                             unless --ranges names all changed byte ranges (bytes appended
+ *                             past the old end need not be named)
+ *   hashtree                  every entry is a directory; hash all its files in parallel into the
+ *                             manifest DIR.manifest and print its root digest (--pass also signs
+ *                             the manifest to DIR.manifest.sig in prehash mode)
+ * Options:
+ *   --manifest M    read further entries from M, one per line
+ *   --threads N     size of the worker pool (default: number of cores)
+ *   --out DIR       write output files to DIR instead of next to their input
+ *   --pass-file F   read the passphrase from the first line of F instead of --pass
+ *   --cache F       hash and mac: reuse the digests of unchanged files from the index F
+ *   --strength S    hash and mac: 256 (default, 512-bit KMACXOF256) or 128 (256-bit
+ *                   KMACXOF128, faster where 128-bit security suffices)
+ *   --leaf N        tree: leaf size in bytes of new trees (default 65536)
+ *   --ranges R      tree: changed ranges OFFSET:LENGTH,... of every file
+ *   --compress      encrypt: deflate files that compress before encrypting them, to FILE.ecz
+ *                   or FILE.kmacz
+ */
+public class BatchCLI {
+
+    private final String command;
+    private final List<String> entries = new ArrayList<>();
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private Path outDir;
+    private String passphrase;
+    private Point publicKey;
+    private boolean prehash;
+    private boolean compress;
+    private Path cacheFile;
+    private DigestCache cache;
+    private int leafSize = MerkleTree.DEFAULT_LEAF_SIZE;
+    private int strength = 256;
+    private long[][] ranges;
+
+    private BatchCLI(String command) {
+        this.command = command;
+    }
+
+    /**
+     * Runs one command.
+     * @param args the command followed by its options and entries
+     * @return the process exit code, 0 if every entry succeeded
+     */
+    public static int run(String[] args) {
+        PrintStream out = System.out;
+        BatchCLI cli;
+        try {
+            cli = parse(args);
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("ERROR: " + e.getMessage());
+            return 2;
+        }
+
+        int failures = 0;
+        if (cli.cacheFile != null) {
+            try {
+                cli.cache = DigestCache.open(cli.cacheFile, DigestCache.DEFAULT_ENTRIES);
+            } catch (IOException e) {
+                System.err.println("ERROR: " + e.getMessage());
+                return 2;
+            }
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(cli.threads);
+        try (EphemeralKeyPool ephemeralKeys = "encrypt".equals(cli.command) && cli.publicKey != null
+                ? EphemeralKeyPool.fromSystemProperties(new SecureRandom()) : null) {
+            List<Future<String>> results = new ArrayList<>(cli.entries.size());
+            if ("keygen".equals(cli.command)) {
+                results.add(pool.submit(cli::keygen));
+            } else {
+                for (String entry : cli.entries) {
+                    results.add(pool.submit(() -> cli.process(entry, ephemeralKeys)));
+                }
+            }
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    String result = results.get(i).get();
+                    out.println(result);
+                    if (result.startsWith("FAILED")) failures++;
+                } catch (ExecutionException e) {
+                    failures++;
+                    //a keygen entry holds a passphrase, so only its error is printed
+                    out.println("ERROR " + e.getCause().getMessage()
+                            + ("keygen".equals(cli.command) ? "" : " " + cli.entries.get(i)));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 1;
+        } finally {
+            pool.shutdownNow();
+            if (cli.cache != null) {
+                try {
+                    cli.cache.close();
+                } catch (IOException e) {
+                    System.err.println("ERROR: " + e.getMessage());
+                }
+            }
+        }
+        return failures == 0 ? 0 : 1;
+    }
+
+    /************************************************************
+     *                         Commands                         *
+     ************************************************************/
+
+    /**
+     * Processes one entry of the command.
+     * @param entry the file of the entry
+     * @param ephemeralKeys source of the ephemeral key pairs for EC encryption
+     * @return the result line
+     * @throws IOException if the entry can not be read or its output written
+     */
+    private String process(String entry, EphemeralKeyPool ephemeralKeys) throws IOException {
+        Path file = Path.of(entry);
+        switch (command) {
+            case "hash":
+                return bytesToHexString(digest(file, "".getBytes(), "D".getBytes())) + "  " + entry;
+            case "mac":
+                return bytesToHexString(digest(file, passphrase.getBytes(), "T".getBytes())) + "  " + entry;
+            case "encrypt":
+                if (publicKey != null) {
+                    Path target = output(file, file.getFileName() + (compress ? ".ecz" : ".ec"));
+                    EphemeralKeyPool.EphemeralKey k = ephemeralKeys.take();
+                    BigInteger Wx = ECArithmetic.exponentiationX(publicKey, new BigInteger(k.getK()));
+                    try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+                         ReadableByteChannel payload = compress ? Compression.packing(in) : in) {
+                        Main.encryptEC(payload, k, Wx, target);
+                    }
+                    return target.toString();
+                } else if (compress) {
+                    Path target = output(file, file.getFileName() + ".kmacz");
+                    Files.write(target, Main.encryptKMACCompressed(Files.readAllBytes(file), passphrase.getBytes()));
+                    return target.toString();
+                } else {
+                    Path target = output(file, file.getFileName() + ".kmac");
+                    Files.write(target, Main.encryptKMAC(Files.readAllBytes(file), passphrase.getBytes()));
+                    return target.toString();
+                }
+            case "decrypt":
+                String name = file.getFileName().toString();
+                if (name.endsWith(".ec") || name.endsWith(".ecz")) {
+                    boolean compressed = name.endsWith(".ecz");
+                    Path target = output(file, name.substring(0, name.lastIndexOf('.')));
+                    Main.decryptEC(file, passphrase, target, compressed);
+                    return target.toString();
+                } else if (name.endsWith(".kmac")) {
+                    Path target = output(file, name.substring(0, name.length() - 5));
+                    Files.write(target, Main.decryptKMAC(Files.readAllBytes(file), passphrase.getBytes()));
+                    return target.toString();
+                } else if (name.endsWith(".kmacz")) {
+                    Path target = output(file, name.substring(0, name.length() - 6));
+                    Files.write(target, Main.decryptKMACCompressed(Files.readAllBytes(file), passphrase.getBytes()));
+                    return target.toString();
+                }
+                throw new IllegalArgumentException("expected a .ec, .kmac, .ecz or .kmacz file");
+            case "sign":
+                byte[] s = CryptoService.privateKey(passphrase);
+                byte[][] signature = prehash ? Main.signPrehashEC(file, s)
+                        : Main.signEC(Files.readAllBytes(file), s);
+                Path target = output(file, file.getFileName() + ".sig");
+                try (FileWriter fw = new FileWriter(target.toFile())) {
+                    fw.write(bytesToHexString(signature[0]) + "\n");
+                    fw.write(bytesToHexString(signature[1]) + "\n");
+                    if (prehash) fw.write("PH\n");
+                }
+                return target.toString();
+            case "tree":
+                return bytesToHexString(merkleRoot(file)) + "  " + entry;
+            case "hashtree":
+                Path manifest = output(file, file.getFileName() + ".manifest");
+                byte[] root = DirectoryHasher.hashTree(file, manifest, threads);
+                if (passphrase != null) {
+                    DirectoryHasher.signManifest(manifest, passphrase, Path.of(manifest + ".sig"));
+                }
+                return bytesToHexString(root) + "  " + entry;
+            case "verify":
+                byte[] h;
+                byte[] z;
+                boolean ph;
+                try (Scanner sigReader = new Scanner(Path.of(entry + ".sig"))) {
+                    h = hexStringToBytes(sigReader.nextLine());
+                    z = hexStringToBytes(sigReader.nextLine());
+                    ph = sigReader.hasNextLine() && Main.PREHASH_MARKER.equals(sigReader.nextLine().trim());
+                }
+                boolean valid = ph ? Main.verifyPrehashEC(file, h, z, publicKey)
+                        : Main.verifyEC(Files.readAllBytes(file), h, z, publicKey);
+                return (valid ? "OK " : "FAILED ") + entry;
+            case "verifybulk":
+                List<Integer> failed = BulkSigner.verifyAll(file, publicKey, threads);
+                if (failed.isEmpty()) return "OK " + entry;
+                List<String> lines = Files.readAllLines(file);
+                StringBuilder result = new StringBuilder("FAILED " + entry);
+                for (int i : failed) {
+                    result.append("\nFAILED ").append(lines.get(i).split("\t")[0]);
+                }
+                return result.toString();
+            default:
+                throw new IllegalArgumentException("Unknown command: " + command);
+        }
+    }
+
+    /**
+     * Derives the public keys of every "name passphrase" entry with a single normalization.
+     * @return one "name publickey" line per entry
+     */
+    private String keygen() {
+        String[] names = new String[entries.size()];
+        String[] passphrases = new String[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            String entry = entries.get(i).trim();
+            int split = entry.indexOf(' ');
+            if (split < 0) throw new IllegalArgumentException("expected \"name passphrase\" in entry " + (i + 1));
+            names[i] = entry.substring(0, split);
+            passphrases[i] = entry.substring(split + 1);
+        }
+        Point[] V = Main.publicKeysEC(passphrases);
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < V.length; i++) {
+            if (i > 0) lines.append(System.lineSeparator());
+            lines.append(names[i]).append(' ').append(bytesToHexString(ECArithmetic.encode(V[i])).replace(" ", ""));
+        }
+        return lines.toString();
+    }
+
+    /************************************************************
+     *                      Helper Methods                      *
+     ************************************************************/
+
+    // streams a file through KMACXOF256 and returns the 512-bit result, or takes it from the cache;
+    // at strength 128 through KMACXOF128 with a 256-bit result
+    private byte[] digest(Path file, byte[] key, byte[] customString) throws IOException {
+        if (cache != null) return cache.digest(file, key, customString);
+        Sponge sponge = strength == 128 ? KMACXOF128Sponge(key, customString) : KMACXOF256Sponge(key, customString);
+        return absorbFile(sponge, file).squeeze(strength / 4);
+    }
+
+    // the Merkle root of a file, reading only what changed since its tree was last updated
+    private byte[] merkleRoot(Path file) throws IOException {
+        Path sidecar = output(file, file.getFileName() + ".mt");
+        if (!Files.exists(sidecar)) {
+            try (MerkleTree tree = MerkleTree.build(file, sidecar, leafSize)) {
+                return tree.root();
+            }
+        }
+        try (MerkleTree tree = MerkleTree.open(file, sidecar)) {
+            if (tree.isCurrent()) return tree.root();
+            if (ranges != null) return tree.updateRanges(ranges);
+        }
+        try (MerkleTree tree = MerkleTree.build(file, sidecar, leafSize)) {
+            return tree.root();
+        }
+    }
+
+    // where an output file for the given input goes
+    private Path output(Path input, String name) {
+        Path dir = outDir != null ? outDir : input.toAbsolutePath().getParent();
+        return dir.resolve(name);
+    }
+
+    // parses the command line
+    private static BatchCLI parse(String[] args) throws IOException {
+        BatchCLI cli = new BatchCLI(args[0]);
+        String keyFile = null;
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                cli.entries.add(arg);
+                continue;
+            }
+            if (arg.equals("--prehash")) {
+                cli.prehash = true;
+                continue;
+            }
+            if (arg.equals("--compress")) {
+                cli.compress = true;
+                continue;
+            }
+            if (i + 1 == args.length) throw new IllegalArgumentException("Missing value for " + arg);
+            String value = args[++i];
+            switch (arg) {
+                case "--manifest":
+                    for (String line : Files.readAllLines(Path.of(value))) {
+                        if (!line.isBlank()) cli.entries.add(line.trim());
+                    }
+                    break;
+                case "--threads":
+                    cli.threads = Integer.parseInt(value);
+                    if (cli.threads < 1) throw new IllegalArgumentException("--threads must be positive");
+                    break;
+                case "--out":
+                    cli.outDir = Files.createDirectories(Path.of(value));
+                    break;
+                case "--pass":
+                    cli.passphrase = value;
+                    break;
+                case "--pass-file":
+                    cli.passphrase = Files.readAllLines(Path.of(value)).get(0);
+                    break;
+                case "--key":
+                    keyFile = value;
+                    break;
+                case "--cache":
+                    cli.cacheFile = Path.of(value);
+                    break;
+                case "--leaf":
+                    cli.leafSize = Integer.parseInt(value);
+                    if (cli.leafSize < 1) throw new IllegalArgumentException("--leaf must be positive");
+                    break;
+                case "--strength":
+                    cli.strength = Integer.parseInt(value);
+                    if (cli.strength != 128 && cli.strength != 256) throw new IllegalArgumentException("--strength must be 128 or 256");
+                    break;
+                case "--ranges":
+                    String[] parts = value.split(",");
+                    cli.ranges = new long[parts.length][];
+                    for (int r = 0; r < parts.length; r++) {
+                        String[] range = parts[r].split(":");
+                        if (range.length != 2) throw new IllegalArgumentException("expected OFFSET:LENGTH but got " + parts[r]);
+                        cli.ranges[r] = new long[] {Long.parseLong(range[0]), Long.parseLong(range[1])};
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (cli.cacheFile != null && cli.strength != 256) {
+            throw new IllegalArgumentException("--cache only holds 256-bit digests");
+        }
+        if (keyFile != null) {
+            cli.publicKey = Main.readPublicKey(Path.of(keyFile).toFile());
+        }
+
+        switch (cli.command) {
+            case "hash", "keygen", "tree", "hashtree":
+                break;
+            case "mac", "decrypt", "sign":
+                if (cli.passphrase == null) throw new IllegalArgumentException(cli.command + " needs --pass or --pass-file");
+                break;
+            case "encrypt":
+                if (cli.publicKey == null && cli.passphrase == null) {
+                    throw new IllegalArgumentException("encrypt needs --key (EC) or --pass (symmetric)");
+                }
+                break;
+            case "verify", "verifybulk":
+                if (cli.publicKey == null) throw new IllegalArgumentException(cli.command + " needs --key");
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown command: " + cli.command);
+        }
+        return cli;
+    }
+}
@@ -0,0 +1,126 @@
+package com.company;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static com.company.KMAC.*;
+
+/**
+ * Verifies many (data, signature, public key) triples at once.
+ *
+ * A signature (h, z) only commits to U through h = KMACXOF256(U.x, m, 512, "T"), so U has to be
+ * rebuilt for every signature and a randomized linear combination over all U's is not possible
+ * with this signature format. Instead every U = z*G + h*V is computed with a single joint
+ * multi-scalar multiplication in projective coordinates (no inversions inside the loop), the
+ * whole batch is normalized with a single inversion and the signatures are spread over all
+ * available cores.
+ */
+public class BatchVerifier {
+
+    /**
+     * Verifies a batch of signatures.
+     * @param data the signed messages
+     * @param h the h component of every signature
+     * @param z the z component of every signature
+     * @param V the public key that every signature is checked against
+     * @return the (sorted) indices of the signatures that failed verification, empty if all passed
+     */
+    public static List<Integer> verifyBatch(byte[][] data, byte[][] h, byte[][] z, Point[] V) {
+        int n = data.length;
+        if (h.length != n || z.length != n || V.length != n) {
+            throw new IllegalArgumentException("Every signature needs data, h, z and a public key.");
+        }
+        Point G = ECArithmetic.getG();
+
+        // rebuild every U in projective form, then normalize them all with one inversion
+        BigInteger[][] projective = new BigInteger[n][];
+        IntStream.range(0, n).parallel().forEach(i -> projective[i] = ECArithmetic.multiScalar(
+                new Point[] {G, V[i]}, new BigInteger[] {new BigInteger(z[i]), new BigInteger(h[i])}));
+        Point[] U = ECArithmetic.normalize(projective);
+
+        boolean[] valid = new boolean[n];
+        IntStream.range(0, n).parallel().forEach(i -> valid[i] = checkTag(U[i], data[i], h[i]));
+
+        List<Integer> failed = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (!valid[i]) failed.add(i);
+        }
+        return failed;
+    }
+
+    /**
+     * Verifies a batch of signatures against named keys of a keyring. The cached window
+     * tables of the keys (and of G) are used, so keys that sign many entries are only
+     * precomputed once.
+     * @param data the signed messages
+     * @param h the h component of every signature
+     * @param z the z component of every signature
+     * @param keyring the keyring holding the public keys
+     * @param names the name of the key that every signature is checked against
+     * @return the (sorted) indices of the signatures that failed verification, empty if all passed
+     */
+    public static List<Integer> verifyBatch(byte[][] data, byte[][] h, byte[][] z, Keyring keyring, String[] names) {
+        return verifyBatch(data, h, z, keyring, names, new boolean[data.length]);
+    }
+
+    /**
+     * Verifies a batch of pure and prehash signatures against named keys of a keyring.
+     * @param data the signed messages, or for prehash signatures the digests of the signed files
+     * @param h the h component of every signature
+     * @param z the z component of every signature
+     * @param keyring the keyring holding the public keys
+     * @param names the name of the key that every signature is checked against
+     * @param prehash whether every signature was made in prehash mode
+     * @return the (sorted) indices of the signatures that failed verification, empty if all passed
+     */
+    public static List<Integer> verifyBatch(byte[][] data, byte[][] h, byte[][] z, Keyring keyring, String[] names,
+                                            boolean[] prehash) {
+        int n = data.length;
+        if (h.length != n || z.length != n || names.length != n || prehash.length != n) {
+            throw new IllegalArgumentException("Every signature needs data, h, z and a public key.");
+        }
+        BigInteger[][] gTable = ECArithmetic.getGTable();
+
+        BigInteger[][] projective = new BigInteger[n][];
+        IntStream.range(0, n).parallel().forEach(i -> projective[i] = ECArithmetic.multiScalar(
+                new BigInteger[][][] {gTable, keyring.table(names[i])},
+                new BigInteger[] {new BigInteger(z[i]), new BigInteger(h[i])}));
+        Point[] U = ECArithmetic.normalize(projective);
+
+        boolean[] valid = new boolean[n];
+        IntStream.range(0, n).parallel().forEach(i -> valid[i] = checkTag(U[i], data[i], h[i],
+                prehash[i] ? CryptoService.PREHASH_TAG : "T"));
+
+        List<Integer> failed = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (!valid[i]) failed.add(i);
+        }
+        return failed;
+    }
+
+    /**
+     * Checks that h = KMACXOF256(U.x, data, 512, "T") for a recomputed U.
+     * @param U the recomputed point U = z*G + h*V
+     * @param data the signed message
+     * @param h the h component of the signature
+     * @return true if the tag matches
+     */
+    static boolean checkTag(Point U, byte[] data, byte[] h) {
+        return checkTag(U, data, h, "T");
+    }
+
+    /**
+     * Checks that h = KMACXOF256(U.x, data, 512, hCustom) for a recomputed U.
+     * @param U the recomputed point U = z*G + h*V
+     * @param data the signed message
+     * @param h the h component of the signature
+     * @param hCustom the customization string of h, "T" or the prehash one
+     * @return true if the tag matches
+     */
+    static boolean checkTag(Point U, byte[] data, byte[] h, String hCustom) {
+        return Arrays.equals(KMACXOF256(U.getPx().toByteArray(), data, 512, hCustom.getBytes()), h);
+    }
+}
@@ -0,0 +1,128 @@
+package com.company;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.company.KMAC.*;
+
+/**
+ * Signs many files under one key. The private key is derived once, every file is prehashed in
+ * a single streaming pass and signed in prehash mode (see Main.signPrehashEC) with the
+ * fixed-base path for U = k*G, all on a worker pool. The signatures are written to one indexed
+ * file where every line holds the path, h, z and the prehash marker PH separated by tabs, in
+ * the order the files were given. verifyAll checks such a file with BatchVerifier.
+ */
+public class BulkSigner {
+
+    /**
+     * Signs every file in prehash mode.
+     * @param files the files to be signed
+     * @param passphrase the passphrase of the signing key
+     * @param output the indexed signature file
+     * @param threads the number of worker threads
+     * @throws IOException if a file can not be read or the output can not be written
+     */
+    public static void signAll(List<Path> files, String passphrase, Path output, int threads) throws IOException {
+        byte[] s = CryptoService.privateKey(passphrase);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<byte[][]>> signatures = new ArrayList<>(files.size());
+            for (Path file : files) {
+                signatures.add(pool.submit(() -> Main.signPrehashEC(file, s)));
+            }
+
+            try (BufferedWriter out = Files.newBufferedWriter(output)) {
+                for (int i = 0; i < files.size(); i++) {
+                    byte[][] signature = signatures.get(i).get();
+                    out.write(files.get(i) + "\t" + bytesToHexString(signature[0]) + "\t"
+                            + bytesToHexString(signature[1]) + "\t" + Main.PREHASH_MARKER);
+                    out.newLine();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while signing", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Verifies every signature of an indexed signature file written by signAll. The files are
+     * prehashed on a worker pool and all signatures are checked in one batch.
+     * @param index the indexed signature file
+     * @param V the public key of the signer
+     * @param threads the number of worker threads
+     * @return the (sorted) indices of the lines whose signature failed verification
+     * @throws IOException if the index or a signed file can not be read
+     * @throws IllegalArgumentException if a line of the index is malformed
+     */
+    public static List<Integer> verifyAll(Path index, Point V, int threads) throws IOException {
+        List<String> lines = Files.readAllLines(index);
+        int n = lines.size();
+        byte[][] h = new byte[n][];
+        byte[][] z = new byte[n][];
+        boolean[] prehash = new boolean[n];
+        String[] names = new String[n];
+        Path[] files = new Path[n];
+        for (int i = 0; i < n; i++) {
+            String[] fields = lines.get(i).split("\t");
+            if (fields.length < 3 || fields.length > 4) {
+                throw new IllegalArgumentException("Expected path, h, z and PH in line " + (i + 1) + " of " + index);
+            }
+            files[i] = Path.of(fields[0]);
+            h[i] = hexStringToBytes(fields[1]);
+            z[i] = hexStringToBytes(fields[2]);
+            prehash[i] = fields.length == 4 && Main.PREHASH_MARKER.equals(fields[3]);
+            names[i] = "signer";
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        byte[][] data = new byte[n][];
+        try {
+            List<Future<byte[]>> digests = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                Path file = files[i];
+                Callable<byte[]> read = prehash[i] ? () -> Main.prehashEC(file) : () -> Files.readAllBytes(file);
+                digests.add(pool.submit(read));
+            }
+            for (int i = 0; i < n; i++) {
+                data[i] = digests.get(i).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while hashing", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        Keyring keyring = new Keyring(1);
+        keyring.add("signer", V);
+        return BatchVerifier.verifyBatch(data, h, z, keyring, names, prehash);
+    }
+
+    /**
+     * Signs every file in prehash mode using one worker per available core.
+     * @param files the files to be signed
+     * @param passphrase the passphrase of the signing key
+     * @param output the indexed signature file
+     * @throws IOException if a file can not be read or the output can not be written
+     */
+    public static void signAll(List<Path> files, String passphrase, Path output) throws IOException {
+        signAll(files, passphrase, output, Runtime.getRuntime().availableProcessors());
+    }
+}
@@ -0,0 +1,291 @@
+package com.company;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Optional compression stage of the encryption services. The payload that is encrypted and
+ * tagged is framed as a one-byte header followed by the body:
+ *   STORED     the body is the data itself
+ *   DEFLATED   the body is the zlib stream of the data
+ * so compressible data (text, logs) costs less keystream, tag absorption and disk than the
+ * original, and the flag is covered by the tag like the rest of the payload.
+ *
+ * Before compressing, the first SAMPLE_SIZE bytes are deflated on their own; if they don't
+ * shrink by at least 1/8 the data is stored as is, so already compressed or random data only
+ * pays for deflating the sample.
+ *
+ * Inflating stops at -Dcompression.maxInflatedBytes (default 1 GB), so a small deflated
+ * payload can not exhaust memory or, while a streamed cryptogram is still unauthenticated,
+ * the disk.
+ */
+public final class Compression {
+
+    /**
+     * header of a payload that is stored as is
+     */
+    public static final byte STORED = 0;
+
+    /**
+     * header of a payload that is deflated
+     */
+    public static final byte DEFLATED = 1;
+
+    /**
+     * number of leading bytes deflated to decide whether the data compresses
+     */
+    public static final int SAMPLE_SIZE = 1 << 16;
+
+    /**
+     * default of the most bytes a deflated payload may inflate to
+     */
+    public static final long DEFAULT_MAX_INFLATED = 1L << 30;
+
+    /**
+     * most bytes a deflated payload may inflate to, -Dcompression.maxInflatedBytes
+     */
+    public static final long MAX_INFLATED = Long.getLong("compression.maxInflatedBytes", DEFAULT_MAX_INFLATED);
+
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private Compression() {
+    }
+
+    /************************************************************
+     *                      In-memory data                      *
+     ************************************************************/
+
+    /**
+     * @param m the data
+     * @return the framed payload of the data, deflated if a sample shows it compresses
+     */
+    public static byte[] pack(final byte[] m) {
+        if (compresses(m, Math.min(m.length, SAMPLE_SIZE))) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                ByteArrayOutputStream packed = new ByteArrayOutputStream(m.length / 2 + 64);
+                packed.write(DEFLATED);
+                deflater.setInput(m);
+                deflater.finish();
+                byte[] chunk = new byte[CHUNK_SIZE];
+                while (!deflater.finished()) {
+                    packed.write(chunk, 0, deflater.deflate(chunk));
+                }
+                if (packed.size() < m.length + 1) return packed.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+        byte[] stored = new byte[m.length + 1];
+        stored[0] = STORED;
+        System.arraycopy(m, 0, stored, 1, m.length);
+        return stored;
+    }
+
+    /**
+     * @param payload the framed payload
+     * @return the data it holds
+     * @throws IllegalArgumentException if the header is unknown, the deflated body is corrupt or
+     *         it inflates beyond MAX_INFLATED bytes
+     */
+    public static byte[] unpack(final byte[] payload) {
+        return unpack(payload, MAX_INFLATED);
+    }
+
+    /**
+     * @param payload the framed payload
+     * @param maxInflated the most bytes a deflated body may inflate to
+     * @return the data it holds
+     * @throws IllegalArgumentException if the header is unknown, the deflated body is corrupt or
+     *         it inflates beyond maxInflated bytes
+     */
+    public static byte[] unpack(final byte[] payload, final long maxInflated) {
+        if (payload.length == 0) throw new IllegalArgumentException("Payload has no compression header");
+        if (payload[0] == STORED) return Arrays.copyOfRange(payload, 1, payload.length);
+        if (payload[0] != DEFLATED) throw new IllegalArgumentException("Unknown compression header " + payload[0]);
+        Inflater inflater = new Inflater();
+        try {
+            ByteArrayOutputStream m = new ByteArrayOutputStream((int) Math.min(payload.length * 4L, maxInflated));
+            inflater.setInput(payload, 1, payload.length - 1);
+            byte[] chunk = new byte[CHUNK_SIZE];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(chunk);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Compressed payload is truncated");
+                }
+                if (m.size() + (long) n > maxInflated) throw tooLarge(maxInflated);
+                m.write(chunk, 0, n);
+            }
+            return m.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Compressed payload is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /************************************************************
+     *                         Streams                          *
+     ************************************************************/
+
+    /**
+     * Frames a stream of data. The sample is read right away; closing the returned channel
+     * closes the given one.
+     * @param in the data
+     * @return a channel of the framed payload
+     * @throws IOException if reading the sample fails
+     */
+    public static ReadableByteChannel packing(final ReadableByteChannel in) throws IOException {
+        ByteBuffer sample = ByteBuffer.allocate(SAMPLE_SIZE);
+        while (sample.hasRemaining() && in.read(sample) != -1) {
+            // fill the sample or reach the end of the data
+        }
+        InputStream data = new SequenceInputStream(
+                new ByteArrayInputStream(sample.array(), 0, sample.position()), Channels.newInputStream(in));
+        boolean deflate = compresses(sample.array(), sample.position());
+        if (deflate) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            data = new DeflaterInputStream(data, deflater, CHUNK_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    deflater.end();
+                }
+            };
+        }
+        InputStream header = new ByteArrayInputStream(new byte[] {deflate ? DEFLATED : STORED});
+        return Channels.newChannel(new SequenceInputStream(header, data));
+    }
+
+    /**
+     * Unframes a stream of payload, inflating at most MAX_INFLATED bytes. Once the whole payload
+     * has been written, Unpacker.finish tells whether it was complete; closing the returned
+     * channel also closes the given one.
+     * @param out where the data is written to
+     * @return a channel taking the framed payload
+     */
+    public static Unpacker unpacking(final WritableByteChannel out) {
+        return new Unpacker(out, MAX_INFLATED);
+    }
+
+    /**
+     * Writes the data of a framed payload, stored or inflated according to its first byte. A
+     * corrupt or oversized payload is only reported by finish, so a decryption checks its tag
+     * before it learns anything about the plaintext; past the size limit nothing more is written.
+     */
+    public static final class Unpacker implements WritableByteChannel {
+        private final WritableByteChannel out;
+        private final OutputStream stream;
+        private final Inflater inflater = new Inflater();
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+        private final long maxInflated;
+        private long inflated;
+        private int header = -1;
+        private boolean corrupt;
+        private boolean tooLarge;
+        private boolean open = true;
+
+        Unpacker(final WritableByteChannel out, final long maxInflated) {
+            this.out = out;
+            this.stream = Channels.newOutputStream(out);
+            this.maxInflated = maxInflated;
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            int written = src.remaining();
+            if (header < 0 && src.hasRemaining()) {
+                header = src.get();
+                corrupt = header != STORED && header != DEFLATED;
+            }
+            if (corrupt || tooLarge) {
+                src.position(src.limit());
+                return written;
+            }
+            if (header == STORED) {
+                while (src.hasRemaining()) out.write(src);
+                return written;
+            }
+            byte[] in = new byte[src.remaining()];
+            src.get(in);
+            inflater.setInput(in);
+            try {
+                while (!inflater.needsInput() && !inflater.finished()) {
+                    int n = inflater.inflate(chunk);
+                    if (n == 0 && inflater.needsDictionary()) throw new DataFormatException();
+                    if (inflated + n > maxInflated) {
+                        tooLarge = true;
+                        break;
+                    }
+                    inflated += n;
+                    stream.write(chunk, 0, n);
+                }
+            } catch (DataFormatException e) {
+                corrupt = true;
+            }
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        /**
+         * Checks the payload once all of it has been written.
+         * @throws IllegalArgumentException if it is corrupt, incomplete or inflates beyond the limit
+         */
+        public void finish() {
+            if (tooLarge) throw tooLarge(maxInflated);
+            boolean complete = !corrupt && (header == STORED || header == DEFLATED && inflater.finished());
+            if (!complete) throw new IllegalArgumentException("Compressed payload is corrupt");
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!open) return;
+            open = false;
+            inflater.end();
+            out.close();
+        }
+    }
+
+    /************************************************************
+     *                      Helper Methods                      *
+     ************************************************************/
+
+    private static IllegalArgumentException tooLarge(final long maxInflated) {
+        return new IllegalArgumentException("Compressed payload inflates beyond " + maxInflated + " bytes");
+    }
+
+    // whether the first length bytes shrink by at least 1/8 when deflated
+    private static boolean compresses(final byte[] sample, final int length) {
+        if (length == 0) return false;
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(sample, 0, length);
+            deflater.finish();
+            byte[] chunk = new byte[CHUNK_SIZE];
+            long deflated = 0;
+            while (!deflater.finished() && deflated * 8 < length * 7L) {
+                deflated += deflater.deflate(chunk);
+            }
+            return deflated * 8 < length * 7L;
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.company;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client of a {@link CryptoDaemon}. Requests can be sent from any number of threads over the
+ * one connection without waiting for earlier responses; a reader thread completes the future
+ * of every request when its response arrives.
+ */
+public class CryptoClient implements AutoCloseable {
+
+    private final SocketChannel channel;
+
+    private final Map<Integer, CompletableFuture<byte[][]>> pending = new ConcurrentHashMap<>();
+
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    private final Object writeLock = new Object();
+
+    private final Thread reader;
+
+    private volatile IOException failure;
+
+    /**
+     * Connects to a daemon.
+     * @param address the address the daemon listens on, see CryptoDaemon.address
+     * @throws IOException if the connection can not be made
+     */
+    public CryptoClient(final SocketAddress address) throws IOException {
+        channel = address instanceof UnixDomainSocketAddress
+                ? SocketChannel.open(StandardProtocolFamily.UNIX) : SocketChannel.open();
+        channel.connect(address);
+        reader = new Thread(this::readResponses, "crypto-client-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Sends a request without waiting for its response.
+     * @param op the op, one of the constants of CryptoDaemon
+     * @param fields the fields of the request
+     * @return the fields of the response; fails with an IllegalArgumentException carrying the
+     *         message of the daemon if the request failed there
+     */
+    public CompletableFuture<byte[][]> send(final byte op, final byte[]... fields) {
+        int id = nextId.incrementAndGet();
+        CompletableFuture<byte[][]> response = new CompletableFuture<>();
+        pending.put(id, response);
+        try {
+            ByteBuffer frame = CryptoDaemon.frame(id, op, fields);
+            synchronized (writeLock) {
+                if (failure != null) throw failure;
+                CryptoDaemon.writeFully(channel, frame);
+            }
+        } catch (IOException | RuntimeException e) {
+            pending.remove(id);
+            response.completeExceptionally(e);
+        }
+        return response;
+    }
+
+    /************************************************************
+     *                        Operations                        *
+     ************************************************************/
+
+    public byte[] hash(final byte[] data) {
+        return call(CryptoDaemon.HASH, data)[0];
+    }
+
+    public byte[] mac(final byte[] passphrase, final byte[] data) {
+        return call(CryptoDaemon.MAC, passphrase, data)[0];
+    }
+
+    public byte[] encrypt(final byte[] passphrase, final byte[] data) {
+        return call(CryptoDaemon.ENCRYPT, passphrase, data)[0];
+    }
+
+    public byte[] decrypt(final byte[] passphrase, final byte[] cryptogram) {
+        return call(CryptoDaemon.DECRYPT, passphrase, cryptogram)[0];
+    }
+
+    public byte[] encryptEC(final Point V, final byte[] data) {
+        return call(CryptoDaemon.EC_ENCRYPT, ECArithmetic.encode(V), data)[0];
+    }
+
+    public byte[] decryptEC(final byte[] passphrase, final byte[] cryptogram) {
+        return call(CryptoDaemon.EC_DECRYPT, passphrase, cryptogram)[0];
+    }
+
+    /**
+     * @return the signature {h, z}
+     */
+    public byte[][] sign(final byte[] passphrase, final byte[] data) {
+        return call(CryptoDaemon.SIGN, passphrase, data);
+    }
+
+    public boolean verify(final Point V, final byte[] data, final byte[] h, final byte[] z) {
+        return call(CryptoDaemon.VERIFY, ECArithmetic.encode(V), data, h, z)[0][0] == 1;
+    }
+
+    /**
+     * Closes the connection. Requests still waiting for a response fail.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /************************************************************
+     *                      Helper Methods                      *
+     ************************************************************/
+
+    // sends a request and waits for its response
+    private byte[][] call(final byte op, final byte[]... fields) {
+        try {
+            return send(op, fields).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    // completes the pending requests as their responses arrive
+    private void readResponses() {
+        try {
+            ByteBuffer frame;
+            while ((frame = CryptoDaemon.readFrame(channel)) != null) {
+                int id = frame.getInt();
+                byte status = frame.get();
+                byte[][] fields = CryptoDaemon.fields(frame);
+                CompletableFuture<byte[][]> response = pending.remove(id);
+                if (response == null) continue;
+                if (status == CryptoDaemon.STATUS_OK) {
+                    response.complete(fields);
+                } else {
+                    response.completeExceptionally(new IllegalArgumentException(
+                            new String(fields[0], StandardCharsets.UTF_8)));
+                }
+            }
+            failure = new IOException("Connection closed by the daemon");
+        } catch (IOException e) {
+            failure = e;
+        }
+        pending.values().forEach(response -> response.completeExceptionally(failure));
+        pending.clear();
+    }
+}
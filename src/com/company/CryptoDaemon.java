@@ -0,0 +1,488 @@
+package com.company;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.company.KMAC.*;
+
+/**
+ * Long-running server for the hashing, MAC, encryption and signature services, so a caller
+ * does not pay for a JVM start and JIT warmup on every small request. The G table, a keyring
+ * of the window tables of every recipient key seen so far and a pool of ephemeral key pairs
+ * stay resident between requests.
+ *
+ * Every connection is read on its own thread and every request is handled as a separate task,
+ * on virtual threads when the runtime has them. A client may therefore pipeline requests:
+ * responses carry the id of their request and are written as soon as they are ready, which
+ * is not necessarily in request order.
+ *
+ * Every frame is a 4-byte big-endian length followed by that many bytes:
+ *   request  = id (int) || op (byte) || field*
+ *   response = id (int) || status (byte) || field*
+ *   field    = length (int) || bytes
+ * The fields of each op are
+ *   HASH        data                          -> digest
+ *   MAC         passphrase, data              -> tag
+ *   ENCRYPT     passphrase, data              -> symmetric cryptogram
+ *   DECRYPT     passphrase, cryptogram        -> data
+ *   EC_ENCRYPT  encoded public key, data      -> Z || c || t
+ *   EC_DECRYPT  passphrase, Z || c || t       -> data
+ *   SIGN        passphrase, data              -> h, z
+ *   VERIFY      encoded public key, data, h, z -> one byte, 1 if the signature is valid
+ * A failed request gets STATUS_ERROR with the message as its only field.
+ *
+ * Usage: java com.company.Main daemon [--tcp PORT | --unix PATH] [options]
+ *   --tcp PORT        listen on the loopback interface (default 7487)
+ *   --unix PATH       listen on a Unix-domain socket instead
+ *   --keyring K       preload the recipient keys of a key directory or indexed key file
+ *   --cache N         number of window tables kept in the keyring (default 256)
+ *   --warmup N        requests of every kind run before listening (default 100)
+ */
+public class CryptoDaemon implements AutoCloseable {
+
+    public static final byte HASH = 1;
+    public static final byte MAC = 2;
+    public static final byte ENCRYPT = 3;
+    public static final byte DECRYPT = 4;
+    public static final byte EC_ENCRYPT = 5;
+    public static final byte EC_DECRYPT = 6;
+    public static final byte SIGN = 7;
+    public static final byte VERIFY = 8;
+
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_ERROR = 1;
+
+    /**
+     * default loopback port
+     */
+    public static final int DEFAULT_PORT = 7487;
+
+    /**
+     * largest frame accepted in either direction
+     */
+    public static final int MAX_FRAME_SIZE = 64 << 20;
+
+    /**
+     * requests of one connection handled at the same time before its reader stops reading
+     */
+    private static final int MAX_IN_FLIGHT = 256;
+
+    /**
+     * request bytes of one connection held at the same time before its reader stops reading
+     */
+    private static final int MAX_BYTES_IN_FLIGHT = MAX_FRAME_SIZE;
+
+    /**
+     * most recipient keys remembered, later ones are decoded on every request
+     */
+    private static final int MAX_KEYS = 1 << 16;
+
+    private final ServerSocketChannel server;
+
+    private final ExecutorService executor;
+
+    private final Keyring keyring;
+
+    private final EphemeralKeyPool ephemeralKeys;
+
+    private final CryptoService crypto = new CryptoService();
+
+    private final AtomicLong served = new AtomicLong();
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a daemon bound to an address. Nothing is served before {@link #serve()}.
+     * @param address a loopback InetSocketAddress or a UnixDomainSocketAddress
+     * @param keyring the keyring holding the recipient keys
+     * @throws IOException if the address can not be bound
+     */
+    public CryptoDaemon(final SocketAddress address, final Keyring keyring) throws IOException {
+        if (address instanceof UnixDomainSocketAddress) {
+            Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            server = ServerSocketChannel.open();
+        }
+        server.bind(address);
+        this.keyring = keyring;
+        this.executor = AsyncCryptoService.newThreadPerTaskExecutor();
+        this.ephemeralKeys = EphemeralKeyPool.fromSystemProperties(new SecureRandom());
+    }
+
+    public static void main(String[] args) {
+        SocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), DEFAULT_PORT);
+        File keyringSource = null;
+        int cacheSize = Keyring.DEFAULT_CACHE_SIZE;
+        int warmup = 100;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (i + 1 == args.length) throw new IllegalArgumentException("Missing value for " + arg);
+                String value = args[++i];
+                switch (arg) {
+                    case "--tcp":
+                        address = address(value);
+                        break;
+                    case "--unix":
+                        address = UnixDomainSocketAddress.of(value);
+                        break;
+                    case "--keyring":
+                        keyringSource = new File(value);
+                        break;
+                    case "--cache":
+                        cacheSize = Integer.parseInt(value);
+                        break;
+                    case "--warmup":
+                        warmup = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+            Keyring keyring = keyringSource != null
+                    ? Keyring.load(keyringSource, cacheSize) : new Keyring(cacheSize);
+            CryptoDaemon daemon = new CryptoDaemon(address, keyring);
+            Runtime.getRuntime().addShutdownHook(new Thread(daemon::close));
+            daemon.warmup(warmup);
+            System.out.println("Listening on " + daemon.server.getLocalAddress());
+            daemon.serve();
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("ERROR: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    /************************************************************
+     *                          Server                          *
+     ************************************************************/
+
+    /**
+     * Accepts connections until the daemon is closed.
+     * @throws IOException if accepting fails for another reason than closing
+     */
+    public void serve() throws IOException {
+        try {
+            while (!closed) {
+                SocketChannel connection = server.accept();
+                executor.execute(() -> handle(connection));
+            }
+        } catch (IOException e) {
+            if (!closed) throw e;
+        }
+    }
+
+    /**
+     * Stops accepting connections and releases the resident state.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            SocketAddress address = server.getLocalAddress();
+            server.close();
+            if (address instanceof UnixDomainSocketAddress) {
+                Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+            }
+        } catch (IOException ignored) {
+            //shutting down anyway
+        }
+        executor.shutdownNow();
+        ephemeralKeys.close();
+    }
+
+    /**
+     * Runs every kind of request a number of times, so the first clients do not see
+     * interpreted code.
+     * @param iterations the number of rounds
+     */
+    public void warmup(final int iterations) {
+        byte[] pw = "warmup".getBytes();
+        byte[] data = new byte[1024];
+        byte[] V = ECArithmetic.encode(crypto.publicKeysEC("warmup")[0]);
+        for (int i = 0; i < iterations; i++) {
+            execute(HASH, new byte[][] {data});
+            execute(DECRYPT, new byte[][] {pw, execute(ENCRYPT, new byte[][] {pw, data})[0]});
+            execute(EC_DECRYPT, new byte[][] {pw, execute(EC_ENCRYPT, new byte[][] {V, data})[0]});
+            byte[][] signature = execute(SIGN, new byte[][] {pw, data});
+            execute(VERIFY, new byte[][] {V, data, signature[0], signature[1]});
+        }
+    }
+
+    // reads the requests of one connection and hands every one to its own task
+    private void handle(final SocketChannel connection) {
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        Semaphore bytesInFlight = new Semaphore(MAX_BYTES_IN_FLIGHT);
+        Object writeLock = new Object();
+        try (connection) {
+            int length;
+            while ((length = readFrameLength(connection)) >= 0) {
+                int size = length;
+                //wait for room before allocating, so the claimed length can not pin the heap
+                bytesInFlight.acquire(size);
+                ByteBuffer frame;
+                try {
+                    frame = readFrameBody(connection, size);
+                } catch (IOException e) {
+                    bytesInFlight.release(size);
+                    throw e;
+                }
+                inFlight.acquire();
+                executor.execute(() -> {
+                    try {
+                        ByteBuffer response = respond(frame);
+                        synchronized (writeLock) {
+                            writeFully(connection, response);
+                        }
+                    } catch (IOException e) {
+                        //the client went away, the reader sees it too
+                    } finally {
+                        bytesInFlight.release(size);
+                        inFlight.release();
+                    }
+                });
+            }
+            //let the pending responses go out before the connection is closed
+            inFlight.acquire(MAX_IN_FLIGHT);
+        } catch (IOException | InterruptedException e) {
+            //connection dropped or daemon closed
+        }
+    }
+
+    // computes the response frame of a request frame
+    private ByteBuffer respond(final ByteBuffer request) {
+        int id = request.getInt();
+        byte op = request.get();
+        try {
+            byte[][] result = execute(op, fields(request));
+            served.incrementAndGet();
+            return frame(id, STATUS_OK, result);
+        } catch (RuntimeException e) {
+            String message = e.getMessage() != null ? e.getMessage() : e.toString();
+            return frame(id, STATUS_ERROR, message.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /************************************************************
+     *                        Operations                        *
+     ************************************************************/
+
+    // performs one request
+    private byte[][] execute(final byte op, final byte[][] f) {
+        switch (op) {
+            case HASH:
+                expect(f, 1);
+                return new byte[][] {KMACXOF256("".getBytes(), f[0], 512, "D".getBytes())};
+            case MAC:
+                expect(f, 2);
+                return new byte[][] {KMACXOF256(f[0], f[1], 512, "T".getBytes())};
+            case ENCRYPT:
+                expect(f, 2);
+                return new byte[][] {crypto.encryptKMAC(f[1], f[0])};
+            case DECRYPT:
+                expect(f, 2);
+                if (f[1].length < 128) throw new IllegalArgumentException("Cryptogram is too short");
+                return new byte[][] {crypto.decryptKMAC(f[1], f[0])};
+            case EC_ENCRYPT:
+                expect(f, 2);
+                EphemeralKeyPool.EphemeralKey k = ephemeralKeys.take();
+                BigInteger Wx = recipient(f[0], new BigInteger(k.getK()));
+                return new byte[][] {crypto.encryptEC(f[1], k, Wx)};
+            case EC_DECRYPT:
+                expect(f, 2);
+                return new byte[][] {crypto.decryptEC(f[1], new String(f[0]))};
+            case SIGN:
+                expect(f, 2);
+                byte[] s = CryptoService.privateKey(f[0]);
+                return crypto.signEC(f[1], s);
+            case VERIFY:
+                expect(f, 4);
+                boolean valid = crypto.verifyEC(f[1], f[2], f[3], publicKey(f[0]));
+                return new byte[][] {{(byte) (valid ? 1 : 0)}};
+            default:
+                throw new IllegalArgumentException("Unknown op " + op);
+        }
+    }
+
+    // the x coordinate of s*V for an encoded public key V, through its cached window table
+    private BigInteger recipient(final byte[] encoded, final BigInteger s) {
+        String name = bytesToHexString(encoded);
+        if (remember(name, encoded)) {
+            return keyring.exponentiation(name, s).getPx();
+        }
+        return ECArithmetic.exponentiationX(ECArithmetic.decode(encoded), s);
+    }
+
+    // decodes a public key, once for every key the keyring remembers
+    private Point publicKey(final byte[] encoded) {
+        String name = bytesToHexString(encoded);
+        return remember(name, encoded) ? keyring.get(name) : ECArithmetic.decode(encoded);
+    }
+
+    // adds a key to the keyring unless it is known or full, returns whether it is in the keyring
+    private boolean remember(final String name, final byte[] encoded) {
+        if (keyring.contains(name)) return true;
+        //decode outside the keyring's lock, the insert itself checks again
+        return keyring.putIfAbsent(name, ECArithmetic.decode(encoded), MAX_KEYS);
+    }
+
+    /************************************************************
+     *                         Framing                          *
+     ************************************************************/
+
+    /**
+     * Builds a frame, including its length prefix.
+     * @param id the id of the request
+     * @param kind the op of a request or the status of a response
+     * @param fields the fields
+     * @return the frame, ready to be written
+     */
+    static ByteBuffer frame(final int id, final byte kind, final byte[]... fields) {
+        int length = 5;
+        for (byte[] field : fields) {
+            length += 4 + field.length;
+        }
+        if (length > MAX_FRAME_SIZE) throw new IllegalArgumentException("Frame exceeds " + MAX_FRAME_SIZE + " bytes");
+        ByteBuffer frame = ByteBuffer.allocate(4 + length);
+        frame.putInt(length).putInt(id).put(kind);
+        for (byte[] field : fields) {
+            frame.putInt(field.length).put(field);
+        }
+        return frame.flip();
+    }
+
+    /**
+     * Reads one frame without its length prefix.
+     * @param in the channel
+     * @return the frame, or null if the channel ended before it
+     * @throws IOException if reading fails, the channel ends inside a frame or the frame is too large
+     */
+    static ByteBuffer readFrame(final ReadableByteChannel in) throws IOException {
+        int length = readFrameLength(in);
+        return length < 0 ? null : readFrameBody(in, length);
+    }
+
+    // reads the length prefix of the next frame, -1 if the channel ended before it
+    private static int readFrameLength(final ReadableByteChannel in) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4);
+        if (in.read(header) == -1) return -1;
+        readFully(in, header);
+        int length = header.flip().getInt();
+        if (length < 5 || length > MAX_FRAME_SIZE) throw new IOException("Bad frame length " + length);
+        return length;
+    }
+
+    // reads a frame of the given length
+    private static ByteBuffer readFrameBody(final ReadableByteChannel in, final int length) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(length);
+        readFully(in, frame);
+        return frame.flip();
+    }
+
+    /**
+     * Splits the fields of a frame positioned after its id and kind.
+     * @param frame the frame
+     * @return the fields
+     */
+    static byte[][] fields(final ByteBuffer frame) {
+        byte[][] fields = new byte[countFields(frame)][];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = new byte[frame.getInt()];
+            frame.get(fields[i]);
+        }
+        return fields;
+    }
+
+    /**
+     * Parses "PORT", "HOST:PORT" or a socket path.
+     * @param spec the address
+     * @return the socket address
+     */
+    public static SocketAddress address(final String spec) {
+        if (spec.matches("\\d+")) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(spec));
+        }
+        int colon = spec.lastIndexOf(':');
+        if (colon > 0 && spec.substring(colon + 1).matches("\\d+")) {
+            return new InetSocketAddress(spec.substring(0, colon), Integer.parseInt(spec.substring(colon + 1)));
+        }
+        return UnixDomainSocketAddress.of(Path.of(spec));
+    }
+
+    /************************************************************
+     *                      Helper Methods                      *
+     ************************************************************/
+
+    // counts the fields after the position of the frame, checking that they fill it exactly
+    private static int countFields(final ByteBuffer frame) {
+        int count = 0;
+        for (int i = frame.position(); i < frame.limit(); count++) {
+            if (frame.limit() - i < 4) throw new IllegalArgumentException("Truncated field");
+            int length = frame.getInt(i);
+            if (length < 0 || length > frame.limit() - i - 4) throw new IllegalArgumentException("Truncated field");
+            i += 4 + length;
+        }
+        return count;
+    }
+
+    // checks the number of fields of a request
+    private static void expect(final byte[][] fields, final int count) {
+        if (fields.length != count) {
+            throw new IllegalArgumentException("Expected " + count + " fields but got " + fields.length);
+        }
+    }
+
+    static void readFully(final ReadableByteChannel in, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) == -1) throw new EOFException("Connection closed inside a frame");
+        }
+    }
+
+    static void writeFully(final WritableByteChannel out, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /************************************************************
+     *                         Getters                          *
+     ************************************************************/
+
+    public SocketAddress getLocalAddress() throws IOException {
+        return server.getLocalAddress();
+    }
+
+    public long getServed() {
+        return served.get();
+    }
+
+    public Keyring getKeyring() {
+        return keyring;
+    }
+
+    @Override
+    public String toString() {
+        return "CryptoDaemon[served=" + served.get() + ", keys=" + keyring.size()
+                + ", cachedTables=" + keyring.cachedTables() + ", " + ephemeralKeys + "]";
+    }
+}
@@ -0,0 +1,460 @@
+package com.company;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the hot paths: Keccak permutations, bytes absorbed and
+ * squeezed, KMACXOF256 calls per customization string, fixed and variable base scalar
+ * multiplications, field inversions and square roots. They are published as MXBeans under
+ * com.company:type=CryptoMetrics and every timed operation is also emitted as a JFR event in
+ * the "Crypto" category (the per-permutation and field operation events are disabled by default
+ * since they are very frequent, enable them in the recording settings when needed).
+ *
+ * Everything is switched on with -Dcrypto.metrics=true. ENABLED is a static final constant,
+ * so when it is off the JIT folds every probe into nothing and only the call sites remain in
+ * the bytecode, which keeps the instrumentation cheap enough to leave in the production build.
+ */
+public final class CryptoMetrics {
+
+    /**
+     * whether the metrics are collected, fixed at startup by the crypto.metrics system property
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("crypto.metrics");
+
+    /**
+     * most distinct customization strings counted separately, the rest share one counter
+     */
+    private static final int MAX_CUSTOMIZATIONS = 256;
+
+    private static final String OTHER_CUSTOMIZATIONS = "<other>";
+
+    private static final LongAdder keccakPermutations = new LongAdder();
+
+    private static final LongAdder bytesAbsorbed = new LongAdder();
+
+    private static final LongAdder bytesSqueezed = new LongAdder();
+
+    private static final LongAdder fixedBaseMultiplications = new LongAdder();
+
+    private static final LongAdder variableBaseMultiplications = new LongAdder();
+
+    private static final LongAdder inversions = new LongAdder();
+
+    private static final LongAdder sqrts = new LongAdder();
+
+    private static final Map<String, LongAdder> kmacCalls = new ConcurrentHashMap<>();
+
+    private static final Histogram keccakLatency = new Histogram();
+
+    private static final Histogram kmacLatency = new Histogram();
+
+    private static final Histogram fixedBaseLatency = new Histogram();
+
+    private static final Histogram variableBaseLatency = new Histogram();
+
+    private static final Histogram inversionLatency = new Histogram();
+
+    private static final Histogram sqrtLatency = new Histogram();
+
+    static {
+        if (ENABLED) {
+            register();
+        }
+    }
+
+    private CryptoMetrics() {
+    }
+
+    /************************************************************
+     *                          Probes                          *
+     ************************************************************/
+
+    /**
+     * @return the start time of a timed operation, 0 when the metrics are off
+     */
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Records one Keccak-f[1600] permutation.
+     * @param start the value of start() before the permutation
+     */
+    public static void keccak(final long start) {
+        if (!ENABLED) return;
+        long elapsed = System.nanoTime() - start;
+        keccakPermutations.increment();
+        keccakLatency.record(elapsed);
+        KeccakEvent event = new KeccakEvent();
+        if (event.shouldCommit()) {
+            event.elapsed = elapsed;
+            event.commit();
+        }
+    }
+
+    /**
+     * Records bytes absorbed into a sponge.
+     * @param n the number of bytes
+     */
+    public static void absorbed(final long n) {
+        if (!ENABLED) return;
+        bytesAbsorbed.add(n);
+    }
+
+    /**
+     * Records bytes squeezed out of a sponge.
+     * @param n the number of bytes
+     */
+    public static void squeezed(final long n) {
+        if (!ENABLED) return;
+        bytesSqueezed.add(n);
+    }
+
+    /**
+     * Records one call of the one shot KMACXOF256.
+     * @param customString the customization string
+     * @param inputBytes the length of the input
+     * @param outputBits the requested output length
+     * @param start the value of start() before the call
+     */
+    public static void kmac(final byte[] customString, final int inputBytes, final int outputBits, final long start) {
+        if (!ENABLED) return;
+        long elapsed = System.nanoTime() - start;
+        String custom = customization(customString);
+        kmacLatency.record(elapsed);
+        KmacEvent event = new KmacEvent();
+        if (event.shouldCommit()) {
+            event.customization = custom;
+            event.inputBytes = inputBytes;
+            event.outputBits = outputBits;
+            event.elapsed = elapsed;
+            event.commit();
+        }
+    }
+
+    /**
+     * Records the creation of an incremental KMACXOF256 sponge, counted like a one shot call.
+     * @param customString the customization string
+     */
+    public static void kmacSponge(final byte[] customString) {
+        if (!ENABLED) return;
+        customization(customString);
+    }
+
+    /**
+     * Records one (multi-)scalar multiplication.
+     * @param fixedBase whether only precomputed tables of G were used
+     * @param scalars the number of scalars multiplied together
+     * @param start the value of start() before the multiplication
+     */
+    public static void scalarMultiplication(final boolean fixedBase, final int scalars, final long start) {
+        if (!ENABLED) return;
+        long elapsed = System.nanoTime() - start;
+        if (fixedBase) {
+            fixedBaseMultiplications.increment();
+            fixedBaseLatency.record(elapsed);
+        } else {
+            variableBaseMultiplications.increment();
+            variableBaseLatency.record(elapsed);
+        }
+        ScalarMultiplicationEvent event = new ScalarMultiplicationEvent();
+        if (event.shouldCommit()) {
+            event.fixedBase = fixedBase;
+            event.scalars = scalars;
+            event.elapsed = elapsed;
+            event.commit();
+        }
+    }
+
+    /**
+     * Records one field inversion mod p.
+     * @param start the value of start() before the inversion
+     */
+    public static void inversion(final long start) {
+        if (!ENABLED) return;
+        long elapsed = System.nanoTime() - start;
+        inversions.increment();
+        inversionLatency.record(elapsed);
+        fieldOperation("inversion", elapsed);
+    }
+
+    /**
+     * Records one field square root mod p.
+     * @param start the value of start() before the square root
+     */
+    public static void sqrt(final long start) {
+        if (!ENABLED) return;
+        long elapsed = System.nanoTime() - start;
+        sqrts.increment();
+        sqrtLatency.record(elapsed);
+        fieldOperation("sqrt", elapsed);
+    }
+
+    /************************************************************
+     *                      Helper Methods                      *
+     ************************************************************/
+
+    // counts a KMACXOF256 call and returns the name its customization string is counted under
+    private static String customization(final byte[] customString) {
+        String custom = new String(customString, StandardCharsets.UTF_8);
+        LongAdder calls = kmacCalls.get(custom);
+        if (calls == null) {
+            if (kmacCalls.size() >= MAX_CUSTOMIZATIONS) custom = OTHER_CUSTOMIZATIONS;
+            calls = kmacCalls.computeIfAbsent(custom, c -> new LongAdder());
+        }
+        calls.increment();
+        return custom;
+    }
+
+    private static void fieldOperation(final String operation, final long elapsed) {
+        FieldOperationEvent event = new FieldOperationEvent();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.elapsed = elapsed;
+            event.commit();
+        }
+    }
+
+    // publishes the MXBeans, a second registration (e.g. another class loader) is ignored
+    private static void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(new Counters(), new ObjectName("com.company:type=CryptoMetrics"));
+            Map<String, Histogram> histograms = Map.of("keccak", keccakLatency, "kmacxof256", kmacLatency,
+                    "fixedBase", fixedBaseLatency, "variableBase", variableBaseLatency,
+                    "inversion", inversionLatency, "sqrt", sqrtLatency);
+            for (Map.Entry<String, Histogram> histogram : histograms.entrySet()) {
+                server.registerMBean(histogram.getValue(),
+                        new ObjectName("com.company:type=CryptoMetrics,name=" + histogram.getKey()));
+            }
+        } catch (JMException e) {
+            System.err.println("Crypto metrics not published over JMX: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Resets every counter and histogram.
+     */
+    public static void reset() {
+        keccakPermutations.reset();
+        bytesAbsorbed.reset();
+        bytesSqueezed.reset();
+        fixedBaseMultiplications.reset();
+        variableBaseMultiplications.reset();
+        inversions.reset();
+        sqrts.reset();
+        kmacCalls.clear();
+        keccakLatency.reset();
+        kmacLatency.reset();
+        fixedBaseLatency.reset();
+        variableBaseLatency.reset();
+        inversionLatency.reset();
+        sqrtLatency.reset();
+    }
+
+    /************************************************************
+     *                          MXBeans                         *
+     ************************************************************/
+
+    public interface CountersMXBean {
+        long getKeccakPermutations();
+        long getBytesAbsorbed();
+        long getBytesSqueezed();
+        long getFixedBaseMultiplications();
+        long getVariableBaseMultiplications();
+        long getInversions();
+        long getSqrts();
+        Map<String, Long> getKmacCallsByCustomization();
+        void reset();
+    }
+
+    public interface HistogramMXBean {
+        long getCount();
+        double getMeanNanos();
+        long getP50Nanos();
+        long getP99Nanos();
+        long getP999Nanos();
+        long getMaxNanos();
+    }
+
+    private static final class Counters implements CountersMXBean {
+        public long getKeccakPermutations() { return keccakPermutations.sum(); }
+        public long getBytesAbsorbed() { return bytesAbsorbed.sum(); }
+        public long getBytesSqueezed() { return bytesSqueezed.sum(); }
+        public long getFixedBaseMultiplications() { return fixedBaseMultiplications.sum(); }
+        public long getVariableBaseMultiplications() { return variableBaseMultiplications.sum(); }
+        public long getInversions() { return inversions.sum(); }
+        public long getSqrts() { return sqrts.sum(); }
+
+        public Map<String, Long> getKmacCallsByCustomization() {
+            Map<String, Long> calls = new TreeMap<>();
+            kmacCalls.forEach((custom, count) -> calls.put(custom, count.sum()));
+            return calls;
+        }
+
+        public void reset() { CryptoMetrics.reset(); }
+    }
+
+    /**
+     * Lock-free latency histogram with 8 linear sub-buckets per power of two of nanoseconds,
+     * so every reported percentile is within 12.5% of the recorded value.
+     */
+    static final class Histogram implements HistogramMXBean {
+
+        private static final int SUB_BITS = 3;
+
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray((64 - SUB_BITS + 1) * SUB_BUCKETS);
+
+        private final LongAdder count = new LongAdder();
+
+        private final LongAdder total = new LongAdder();
+
+        private final AtomicLong max = new AtomicLong();
+
+        void record(final long nanos) {
+            long v = Math.max(nanos, 0);
+            buckets.incrementAndGet(index(v));
+            count.increment();
+            total.add(v);
+            max.accumulateAndGet(v, Math::max);
+        }
+
+        void reset() {
+            for (int i = 0; i < buckets.length(); i++) {
+                buckets.set(i, 0);
+            }
+            count.reset();
+            total.reset();
+            max.set(0);
+        }
+
+        public long getCount() { return count.sum(); }
+
+        public double getMeanNanos() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) total.sum() / n;
+        }
+
+        public long getP50Nanos() { return percentile(0.50); }
+        public long getP99Nanos() { return percentile(0.99); }
+        public long getP999Nanos() { return percentile(0.999); }
+        public long getMaxNanos() { return max.get(); }
+
+        /**
+         * @param q the quantile, between 0 and 1
+         * @return the lower bound of the bucket holding the quantile, in nanoseconds
+         */
+        long percentile(final double q) {
+            long[] snapshot = new long[buckets.length()];
+            long n = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = buckets.get(i);
+                n += snapshot[i];
+            }
+            if (n == 0) return 0;
+            long rank = (long) Math.ceil(q * n);
+            long seen = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) return lowerBound(i);
+            }
+            return max.get();
+        }
+
+        // bucket of a value: values below 8 get their own bucket, larger ones are split by
+        // their highest bit and the 3 bits below it
+        private static int index(final long v) {
+            if (v < SUB_BUCKETS) return (int) v;
+            int msb = 63 - Long.numberOfLeadingZeros(v);
+            int sub = (int) (v >>> (msb - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return (msb - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        private static long lowerBound(final int index) {
+            if (index < SUB_BUCKETS) return index;
+            int msb = index / SUB_BUCKETS + SUB_BITS - 1;
+            return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (msb - SUB_BITS);
+        }
+    }
+
+    /************************************************************
+     *                        JFR Events                        *
+     ************************************************************/
+
+    @Name("com.company.Keccak")
+    @Label("Keccak Permutation")
+    @Category("Crypto")
+    @Enabled(false)
+    static final class KeccakEvent extends Event {
+        @Label("Elapsed")
+        @Timespan
+        long elapsed;
+    }
+
+    @Name("com.company.KMACXOF256")
+    @Label("KMACXOF256")
+    @Category("Crypto")
+    static final class KmacEvent extends Event {
+        @Label("Customization String")
+        String customization;
+
+        @Label("Input Bytes")
+        int inputBytes;
+
+        @Label("Output Bits")
+        int outputBits;
+
+        @Label("Elapsed")
+        @Timespan
+        long elapsed;
+    }
+
+    @Name("com.company.ScalarMultiplication")
+    @Label("Scalar Multiplication")
+    @Category("Crypto")
+    static final class ScalarMultiplicationEvent extends Event {
+        @Label("Fixed Base")
+        @Description("Only precomputed tables of G were used")
+        boolean fixedBase;
+
+        @Label("Scalars")
+        int scalars;
+
+        @Label("Elapsed")
+        @Timespan
+        long elapsed;
+    }
+
+    @Name("com.company.FieldOperation")
+    @Label("Field Operation")
+    @Category("Crypto")
+    @Enabled(false)
+    static final class FieldOperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Elapsed")
+        @Timespan
+        long elapsed;
+    }
+}
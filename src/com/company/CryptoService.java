@@ -0,0 +1,461 @@
+package com.company;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import static com.company.KMAC.*;
+import static com.company.ECArithmetic.*;
+
+/**
+ * The logical work of the symmetric and elliptic curve services. An instance holds nothing but
+ * its SecureRandom and the generator G, both safe to share, and every call keeps its keys,
+ * sponges and buffers to itself, so one instance can serve any number of threads at once and
+ * a call can be made again from inside another.
+ *
+ * Main keeps a shared instance behind its static methods for the existing callers.
+ */
+public class CryptoService {
+
+    /**
+     * size of the chunks the EC encryption streams data in
+     */
+    private static final int STREAM_CHUNK_SIZE = 1 << 16;
+
+    /**
+     * customization strings of k and h in prehash mode. They differ from the "N" and "T" of a
+     * pure signature, so a signature made in one mode never verifies in the other, as dom4
+     * separates Ed448ph from Ed448
+     */
+    static final String PREHASH_NONCE = "NPH";
+
+    static final String PREHASH_TAG = "TPH";
+
+    /**
+     * secure random of the nonces, SecureRandom is thread safe
+     */
+    private final SecureRandom z;
+
+    private final Point G = getG();
+
+    /**
+     * @param random the source of the nonces
+     */
+    public CryptoService(final SecureRandom random) {
+        this.z = random;
+    }
+
+    public CryptoService() {
+        this(new SecureRandom());
+    }
+
+    /**************************************************************
+     *                        KMAC Services                       *
+     **************************************************************/
+
+    /**
+     * Helper method that contains the logical work of the encryption service.
+     * @param m the byte array to be encrypted.
+     * @param pw the passphrase or key bytes.
+     * @return an encrypted version of the given byte array.
+     */
+    public byte[] encryptKMAC(byte[] m, byte[] pw) {
+        byte[] rand = new byte[64];
+        z.nextBytes(rand);
+
+        //squeeze bits from sponge
+        byte[] keka = KMACXOF256(concat(rand, pw), "".getBytes(), 1024, "S".getBytes());
+        byte[] ke = new byte[64];
+        System.arraycopy(keka,0,ke,0,64);
+        byte[] ka = new byte[64];
+        System.arraycopy(keka, 64,ka,0,64);
+
+        byte[] c = KMACXOF256(ke, "".getBytes(), (m.length * 8), "SKE".getBytes());
+        c =  xorBytes(c, m);
+        byte[] t = KMACXOF256(ka, m, 512, "SKA".getBytes());
+
+        return concat(concat(rand, c), t);
+    }
+
+    /**
+     * Symmetric encryption with the compression stage, see Compression.
+     * @param m the byte array to be encrypted.
+     * @param pw the passphrase or key bytes.
+     * @return the cryptogram of the framed, possibly deflated, data.
+     */
+    public byte[] encryptKMACCompressed(byte[] m, byte[] pw) {
+        return encryptKMAC(Compression.pack(m), pw);
+    }
+
+    /**
+     * Decrypts a cryptogram made by encryptKMACCompressed.
+     * @param cryptogram the symmetric cryptogram to be decrypted.
+     * @param pw the passphrase or key bytes.
+     * @return the decrypted and inflated data.
+     * @throws IllegalArgumentException if the tags don't match or the payload is corrupt.
+     */
+    public byte[] decryptKMACCompressed(byte[] cryptogram, byte[] pw) {
+        return Compression.unpack(decryptKMAC(cryptogram, pw));
+    }
+
+    /**
+     * Helper method that contains the logical work of the decryption service.
+     * @param cryptogram the symmetric cryptogram to be decrypted.
+     * @param pw the passphrase or key bytes.
+     * @return a decrypted version of the given cryptogram.
+     */
+    public byte[] decryptKMAC(byte[] cryptogram, byte[] pw) {
+        byte[] rand = new byte[64];
+        //retrieve 512-bit random number contacted to beginning of cryptogram
+        System.arraycopy(cryptogram, 0, rand, 0, 64);
+
+        //retrieve the encrypted message
+        byte[] in = Arrays.copyOfRange(cryptogram, 64, cryptogram.length - 64);
+
+        //retrieve tag that was appended to cryptogram
+        byte[] tag = Arrays.copyOfRange(cryptogram, cryptogram.length - 64, cryptogram.length);
+
+        //squeeze bits from sponge
+        byte[] keka = KMACXOF256(concat(rand, pw), "".getBytes(), 1024, "S".getBytes());
+        byte[] ke = new byte[64];
+        System.arraycopy(keka,0,ke,0,64);
+        byte[] ka = new byte[64];
+        System.arraycopy(keka, 64,ka,0,64);
+
+        byte[] m = KMACXOF256(ke, "".getBytes(), (in.length*  8), "SKE".getBytes());
+        m = xorBytes(m, in);
+
+        byte[] tPrime = KMACXOF256(ka, m, 512, "SKA".getBytes());
+
+        if (Arrays.equals(tag, tPrime)) {
+            return m;
+        }
+        else {
+            throw new IllegalArgumentException("Tags didn't match");
+        }
+    }
+
+    /**************************************************************
+     *                         EC Services                        *
+     **************************************************************/
+
+    /**
+     * Derives the private key s = KMACXOF256(pw, "", 512, "SK") of a passphrase.
+     * @param passphrase the passphrase.
+     * @return the 64-byte private key.
+     */
+    public static byte[] privateKey(byte[] passphrase) {
+        return KMACXOF256(passphrase, "".getBytes(), 512, "SK".getBytes());
+    }
+
+    /**
+     * Derives the private key of a passphrase, see privateKey(byte[]).
+     * @param passphrase the passphrase.
+     * @return the 64-byte private key.
+     */
+    public static byte[] privateKey(String passphrase) {
+        return privateKey(passphrase.getBytes());
+    }
+
+    /**
+     * Helper method that derives the public keys V = s*G for many passphrases at once.
+     * All keys are normalized together with a single field inversion.
+     * @param passphrases the passphrases to derive the key pairs from.
+     * @return the public key of every passphrase, in the same order.
+     */
+    public Point[] publicKeysEC(String... passphrases) {
+        BigInteger[] s = new BigInteger[passphrases.length];
+        for (int i = 0; i < passphrases.length; i++) {
+            s[i] = new BigInteger(privateKey(passphrases[i]));
+        }
+        return exponentiationAll(G, s);
+    }
+
+    /**
+     * Helper method that contains the logical work of the EC encryption service.
+     * The data is streamed through in chunks, so memory use does not depend on its size.
+     * The cryptogram is written as the 57-byte encoding of Z, then c, then the 64-byte tag t.
+     * @param in the data to be encrypted.
+     * @param k the ephemeral key pair (k, Z = k*G), destroyed once it has been used.
+     * @param Wx the x coordinate of W = k*V.
+     * @param outputPath the file the cryptogram (Z, c, t) is written to.
+     * @throws IOException if reading the data or writing the cryptogram fails.
+     */
+    public void encryptEC(ReadableByteChannel in, EphemeralKeyPool.EphemeralKey k, BigInteger Wx, Path outputPath) throws IOException {
+        Point Z = k.getZ();
+        k.destroy();
+
+        //squeeze bits from sponge
+        byte[] keka = KMACXOF256(Wx.toByteArray(), "".getBytes(), 1024, "PK".getBytes());
+        Sponge keystream = KMACXOF256Sponge(Arrays.copyOfRange(keka, 0, 64), "PKE".getBytes());
+        Sponge tag = KMACXOF256Sponge(Arrays.copyOfRange(keka, 64, 128), "PKA".getBytes());
+
+        ByteBuffer chunk = ByteBuffer.allocate(STREAM_CHUNK_SIZE);
+        try (FileChannel out = FileChannel.open(outputPath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(out, ByteBuffer.wrap(encode(Z)));
+            while (in.read(chunk) != -1) {
+                chunk.flip();
+                tag.absorb(chunk.array(), 0, chunk.limit());
+                keystream.squeezeXor(chunk.array(), 0, chunk.limit());
+                writeFully(out, chunk);
+                chunk.clear();
+            }
+            writeFully(out, ByteBuffer.wrap(tag.squeeze(64)));
+        }
+    }
+
+    /**
+     * Helper method that contains the logical work of the EC encryption service for data that
+     * is already in memory. Produces the same cryptogram layout as the streaming version.
+     * @param m the data to be encrypted.
+     * @param k the ephemeral key pair (k, Z = k*G), destroyed once it has been used.
+     * @param Wx the x coordinate of W = k*V.
+     * @return the cryptogram Z || c || t.
+     */
+    public byte[] encryptEC(byte[] m, EphemeralKeyPool.EphemeralKey k, BigInteger Wx) {
+        byte[] Z = encode(k.getZ());
+        k.destroy();
+
+        byte[] keka = KMACXOF256(Wx.toByteArray(), "".getBytes(), 1024, "PK".getBytes());
+        Sponge keystream = KMACXOF256Sponge(Arrays.copyOfRange(keka, 0, 64), "PKE".getBytes());
+        Sponge tag = KMACXOF256Sponge(Arrays.copyOfRange(keka, 64, 128), "PKA".getBytes());
+
+        byte[] cryptogram = new byte[Z.length + m.length + 64];
+        System.arraycopy(Z, 0, cryptogram, 0, Z.length);
+        System.arraycopy(m, 0, cryptogram, Z.length, m.length);
+        tag.absorb(m);
+        keystream.squeezeXor(cryptogram, Z.length, m.length);
+        tag.squeeze(cryptogram, Z.length + m.length, 64);
+        return cryptogram;
+    }
+
+    /**
+     * Helper method that contains the logical work of the EC decryption service for a
+     * cryptogram that is already in memory.
+     * @param cryptogram the cryptogram Z || c || t.
+     * @param passphrase the passphrase of the recipient.
+     * @return the decrypted data.
+     * @throws IllegalArgumentException if the tags don't match.
+     */
+    public byte[] decryptEC(byte[] cryptogram, String passphrase) {
+        int cLength = cryptogram.length - ENCODED_LENGTH - 64;
+        if (cLength < 0) throw new IllegalArgumentException("Cryptogram is too short");
+        Point Z = decode(Arrays.copyOfRange(cryptogram, 0, ENCODED_LENGTH));
+
+        byte[] s = privateKey(passphrase);
+        BigInteger Wx = exponentiationX(Z, new BigInteger(s));
+        byte[] keka = KMACXOF256(Wx.toByteArray(), "".getBytes(), 1024, "PK".getBytes());
+        Sponge keystream = KMACXOF256Sponge(Arrays.copyOfRange(keka, 0, 64), "PKE".getBytes());
+        Sponge tag = KMACXOF256Sponge(Arrays.copyOfRange(keka, 64, 128), "PKA".getBytes());
+
+        byte[] m = Arrays.copyOfRange(cryptogram, ENCODED_LENGTH, ENCODED_LENGTH + cLength);
+        keystream.squeezeXor(m, 0, m.length);
+        tag.absorb(m);
+        if (!Arrays.equals(tag.squeeze(64), Arrays.copyOfRange(cryptogram, ENCODED_LENGTH + cLength, cryptogram.length))) {
+            throw new IllegalArgumentException("Tags didn't match");
+        }
+        return m;
+    }
+
+    /**
+     * Helper method that contains the logical work of the EC decryption service.
+     * The cryptogram is streamed through in chunks into a temporary file next to the output,
+     * which only replaces the output once the tag has been checked.
+     * @param inputPath the cryptogram (Z, c, t) written by the encryption service.
+     * @param passphrase the passphrase of the recipient.
+     * @param outputPath the file the decrypted data is written to.
+     * @throws IOException if reading the cryptogram or writing the data fails.
+     * @throws IllegalArgumentException if the tags don't match.
+     */
+    public void decryptEC(Path inputPath, String passphrase, Path outputPath) throws IOException {
+        decryptEC(inputPath, passphrase, outputPath, false);
+    }
+
+    /**
+     * Helper method that contains the logical work of the EC decryption service, optionally for
+     * a cryptogram of a payload framed by Compression.packing, which is inflated as it is decrypted.
+     * @param inputPath the cryptogram (Z, c, t) written by the encryption service.
+     * @param passphrase the passphrase of the recipient.
+     * @param outputPath the file the decrypted data is written to.
+     * @param compressed whether the payload is framed by the compression stage.
+     * @throws IOException if reading the cryptogram or writing the data fails.
+     * @throws IllegalArgumentException if the tags don't match or the payload is corrupt.
+     */
+    public void decryptEC(Path inputPath, String passphrase, Path outputPath, boolean compressed) throws IOException {
+        Path absoluteOutput = outputPath.toAbsolutePath();
+        Path tempFile = Files.createTempFile(absoluteOutput.getParent(), "decrypt", ".tmp");
+        boolean verified = false;
+        try (FileChannel in = FileChannel.open(inputPath, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(tempFile, StandardOpenOption.WRITE);
+             Compression.Unpacker unpacker = compressed ? Compression.unpacking(out) : null) {
+            WritableByteChannel sink = compressed ? unpacker : out;
+            long remaining = in.size() - ENCODED_LENGTH - 64;
+            if (remaining < 0) throw new IllegalArgumentException("Cryptogram is too short");
+
+            ByteBuffer encodedZ = ByteBuffer.allocate(ENCODED_LENGTH);
+            readFully(in, encodedZ);
+            Point Z = decode(encodedZ.array());
+
+            //Make sure it is multiple of 4?
+            byte[] s = privateKey(passphrase);
+
+            //only the x coordinate of W = s*Z is needed, so use the x-only ladder
+            BigInteger Wx = exponentiationX(Z, new BigInteger(s));
+            //squeeze bits from sponge
+            byte[] keka = KMACXOF256(Wx.toByteArray(), "".getBytes(), 1024, "PK".getBytes());
+            Sponge keystream = KMACXOF256Sponge(Arrays.copyOfRange(keka, 0, 64), "PKE".getBytes());
+            Sponge tag = KMACXOF256Sponge(Arrays.copyOfRange(keka, 64, 128), "PKA".getBytes());
+
+            ByteBuffer chunk = ByteBuffer.allocate(STREAM_CHUNK_SIZE);
+            while (remaining > 0) {
+                chunk.limit((int) Math.min(STREAM_CHUNK_SIZE, remaining));
+                readFully(in, chunk);
+                chunk.flip();
+                keystream.squeezeXor(chunk.array(), 0, chunk.limit());
+                tag.absorb(chunk.array(), 0, chunk.limit());
+                writeFully(sink, chunk);
+                remaining -= chunk.limit();
+                chunk.clear();
+            }
+
+            ByteBuffer t = ByteBuffer.allocate(64);
+            readFully(in, t);
+            if (!Arrays.equals(t.array(), tag.squeeze(64))) {
+                throw new IllegalArgumentException("Tags didn't match");
+            }
+            //the inflater only knows the payload is complete once all of it has been written
+            if (unpacker != null) unpacker.finish();
+            verified = true;
+        } finally {
+            if (verified) {
+                Files.move(tempFile, absoluteOutput, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+
+    /**
+     * Helper method that contains the logical work of the signing service.
+     * @param data the data to be signed.
+     * @param s the private key.
+     * @return the signature {h, z}.
+     */
+    public byte[][] signEC(byte[] data, byte[] s) {
+        return sign(data, s, "N", "T");
+    }
+
+    /**
+     * Signs a file in prehash mode: its streamed digest (see prehashEC) is signed with the
+     * prehash customization strings.
+     * @param dataPath the file to be signed.
+     * @param s the private key.
+     * @return the signature {h, z}.
+     * @throws IOException if the file can not be read.
+     */
+    public byte[][] signPrehashEC(Path dataPath, byte[] s) throws IOException {
+        return sign(prehashEC(dataPath), s, PREHASH_NONCE, PREHASH_TAG);
+    }
+
+    /**
+     * Hashes a file in one streaming pass into the 512-bit digest that prehash signatures
+     * sign, KMACXOF256("", data, 512, "PH").
+     * @param dataPath the file to be hashed.
+     * @return the 64-byte digest.
+     * @throws IOException if the file can not be read.
+     */
+    public byte[] prehashEC(Path dataPath) throws IOException {
+        return absorbFile(KMACXOF256Sponge("".getBytes(), "PH".getBytes()), dataPath).squeeze(64);
+    }
+
+    /**
+     * Helper method that contains the logical work of the verification service.
+     * @param data the signed data.
+     * @param h the h component of the signature.
+     * @param z the z component of the signature.
+     * @param V the public key of the signer.
+     * @return true if the signature is valid for the data under V.
+     */
+    public boolean verifyEC(byte[] data, byte[] h, byte[] z, Point V) {
+        return verify(data, h, z, V, "T");
+    }
+
+    /**
+     * Verifies a signature made by signPrehashEC.
+     * @param dataPath the signed file.
+     * @param h the h component of the signature.
+     * @param z the z component of the signature.
+     * @param V the public key of the signer.
+     * @return true if the signature is a valid prehash signature of the file under V.
+     * @throws IOException if the file can not be read.
+     */
+    public boolean verifyPrehashEC(Path dataPath, byte[] h, byte[] z, Point V) throws IOException {
+        return verify(prehashEC(dataPath), h, z, V, PREHASH_TAG);
+    }
+
+    /**
+     * @param length the number of bytes.
+     * @return fresh random bytes from the SecureRandom of this service.
+     */
+    public byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        z.nextBytes(bytes);
+        return bytes;
+    }
+
+    /*************************************************************
+     *                          Helpers                          *
+     *************************************************************/
+
+    // signs data with the given customization strings of k and h
+    private static byte[][] sign(byte[] data, byte[] s, String kCustom, String hCustom) {
+        // make sure it is a multiple of 4?
+        byte[] k = KMACXOF256(s, data, 512, kCustom.getBytes());
+        Point U = toAffine(exponentiationG(new BigInteger(k)));
+
+        byte[] h = KMACXOF256(U.getPx().toByteArray(), data, 512, hCustom.getBytes());
+        byte[] z = (new BigInteger(k).subtract(new BigInteger(h).multiply(new BigInteger(s)))).mod(getR()).toByteArray();
+        return new byte[][] {h, z};
+    }
+
+    // rebuilds U = z*G + h*V and checks h against it with the given customization string
+    private boolean verify(byte[] data, byte[] h, byte[] z, Point V, String hCustom) {
+        BigInteger[] U = multiScalar(new Point[] {G, V}, new BigInteger[] {new BigInteger(z), new BigInteger(h)});
+        return BatchVerifier.checkTag(toAffine(U), data, h, hCustom);
+    }
+
+    /**
+     * Writes the whole buffer to the channel.
+     * @param out the channel to write to.
+     * @param buffer the bytes between position and limit are written.
+     * @throws IOException if writing fails.
+     */
+    private static void writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Fills the buffer up to its limit from the channel.
+     * @param in the channel to read from.
+     * @param buffer the buffer to fill.
+     * @throws IOException if reading fails or the channel ends first.
+     */
+    private static void readFully(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) == -1) throw new EOFException("Unexpected end of file");
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.company;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static com.company.KMAC.*;
+
+/**
+ * Persistent index of the 512-bit KMACXOF256 digests of files, so a job that hashes a largely
+ * unchanged tree again only reads the files that changed. An entry is keyed by the canonical
+ * path, the key and the customization string, and is only used while the size, the
+ * modification time and the inode (file key) of the file are the ones it was computed for.
+ *
+ * The index is a memory-mapped file holding a set-associative table: the 128-bit fingerprint of
+ * the key selects a set of WAYS slots, so a lookup touches one small region of the mapping
+ * and needs no hashing of the file. A set that is full evicts its least recently used slot,
+ * which bounds the file at the number of entries given when it was created.
+ *
+ * A file modified within MTIME_SLACK_MILLIS of being hashed is not cached, since a change
+ * in the same timestamp tick could otherwise go unnoticed. The index is locked while open,
+ * so only one process uses it at a time.
+ *
+ * A slot is written with its fingerprint cleared first and set last, and carries a checksum
+ * over its fingerprint, attributes and digest that every lookup verifies, so a slot torn by a
+ * crash or a partial writeback is a miss rather than the digest of another file.
+ *
+ * Layout: header (HEADER_SIZE bytes) = magic, sets, clock; slot (SLOT_SIZE bytes) =
+ * fingerprint (16) || size (8) || mtime nanos (8) || file key hash (8) || last use (8) ||
+ * digest (64) || checksum (16)
+ */
+public class DigestCache implements AutoCloseable {
+
+    /**
+     * default number of entries of a new index
+     */
+    public static final int DEFAULT_ENTRIES = 1 << 16;
+
+    /**
+     * files modified this recently are hashed but not cached
+     */
+    public static final long MTIME_SLACK_MILLIS = 2000;
+
+    private static final long MAGIC = 0x4b4d4143_44433032L; // "KMACDC02"
+
+    private static final int WAYS = 8;
+
+    private static final int HEADER_SIZE = 64;
+
+    private static final int SLOT_SIZE = 128;
+
+    private static final int DIGEST_OFFSET = 48;
+
+    private static final int LAST_USE_OFFSET = 40;
+
+    private static final int CHECKSUM_OFFSET = 112;
+
+    private final FileChannel channel;
+
+    private final FileLock lock;
+
+    private final MappedByteBuffer map;
+
+    private final int sets;
+
+    private long clock;
+
+    private long hits;
+
+    private long misses;
+
+    private DigestCache(final FileChannel channel, final FileLock lock, final MappedByteBuffer map, final int sets) {
+        this.channel = channel;
+        this.lock = lock;
+        this.map = map;
+        this.sets = sets;
+        this.clock = map.getLong(16);
+    }
+
+    /**
+     * Opens an index, creating it with room for the given number of entries if it does not
+     * exist yet. An existing index keeps the size it was created with.
+     * @param indexFile the index file
+     * @param entries the number of entries of a new index
+     * @return the open index
+     * @throws IOException if the index can not be mapped, is locked by another process or is not an index
+     */
+    public static DigestCache open(final Path indexFile, final int entries) throws IOException {
+        if (entries < 1) throw new IllegalArgumentException("Number of entries must be positive.");
+        FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            FileLock lock = channel.tryLock();
+            if (lock == null) throw new IOException("Digest cache " + indexFile + " is in use by another process");
+            int sets;
+            if (channel.size() == 0) {
+                sets = (entries + WAYS - 1) / WAYS;
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putLong(MAGIC).putLong(sets).putLong(0L);
+                channel.write(header.flip(), 0);
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                channel.read(header, 0);
+                if (header.getLong(0) != MAGIC) throw new IOException(indexFile + " is not a digest cache");
+                long storedSets = header.getLong(8);
+                if (storedSets < 1 || storedSets > Integer.MAX_VALUE) {
+                    throw new IOException(indexFile + " is a corrupt digest cache");
+                }
+                sets = (int) storedSets;
+            }
+            long size = HEADER_SIZE + (long) sets * WAYS * SLOT_SIZE;
+            if (size > Integer.MAX_VALUE) throw new IllegalArgumentException("Digest cache is too large to map.");
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new DigestCache(channel, lock, map, sets);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /************************************************************
+     *                        Operations                        *
+     ************************************************************/
+
+    /**
+     * Returns the KMACXOF256 digest of a file, from the index if the file has not changed since
+     * it was last hashed, otherwise by streaming the file and recording the result.
+     * @param file the file
+     * @param key the KMAC key ("" for a plain hash)
+     * @param customString the customization string
+     * @return the 512-bit digest
+     * @throws IOException if the file can not be read
+     */
+    public byte[] digest(final Path file, final byte[] key, final byte[] customString) throws IOException {
+        Path path = file.toRealPath();
+        byte[] fingerprint = fingerprint(path, key, customString);
+        BasicFileAttributes before = Files.readAttributes(path, BasicFileAttributes.class);
+        byte[] cached = get(fingerprint, before);
+        if (cached != null) return cached;
+
+        byte[] digest = absorbFile(KMACXOF256Sponge(key, customString), path).squeeze(64);
+
+        BasicFileAttributes after = Files.readAttributes(path, BasicFileAttributes.class);
+        long age = System.currentTimeMillis() - after.lastModifiedTime().toMillis();
+        if (sameVersion(before, after) && age >= MTIME_SLACK_MILLIS) {
+            put(fingerprint, after, digest);
+        }
+        return digest;
+    }
+
+    /**
+     * Flushes the index to disk and releases its lock. The mapping itself goes away once it is
+     * garbage collected, the JDK has no explicit unmap.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        map.putLong(16, clock);
+        map.force();
+        lock.release();
+        channel.close();
+    }
+
+    /************************************************************
+     *                      Helper Methods                      *
+     ************************************************************/
+
+    // the cached digest for a fingerprint if it was computed for this version of the file
+    private synchronized byte[] get(final byte[] fingerprint, final BasicFileAttributes attributes) {
+        int slot = find(fingerprint);
+        if (slot < 0 || !matches(slot, attributes) || !Arrays.equals(storedChecksum(slot), checksum(slot))) {
+            misses++;
+            return null;
+        }
+        hits++;
+        map.putLong(slot + LAST_USE_OFFSET, ++clock);
+        byte[] digest = new byte[64];
+        map.get(slot + DIGEST_OFFSET, digest);
+        return digest;
+    }
+
+    // records a digest in the slot of its fingerprint, or the least recently used slot of its set
+    private synchronized void put(final byte[] fingerprint, final BasicFileAttributes attributes, final byte[] digest) {
+        int slot = find(fingerprint);
+        if (slot < 0) {
+            int first = setOf(fingerprint);
+            slot = first;
+            for (int way = 0; way < WAYS; way++) {
+                int candidate = first + way * SLOT_SIZE;
+                if (map.getLong(candidate + LAST_USE_OFFSET) < map.getLong(slot + LAST_USE_OFFSET)) {
+                    slot = candidate;
+                }
+            }
+        }
+        // the fingerprint is cleared first and written last, so a torn slot is never found
+        map.put(slot, new byte[16]);
+        map.putLong(slot + 16, attributes.size());
+        map.putLong(slot + 24, attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS));
+        map.putLong(slot + 32, fileKeyHash(attributes));
+        map.putLong(slot + LAST_USE_OFFSET, ++clock);
+        map.put(slot + DIGEST_OFFSET, digest);
+        map.put(slot + CHECKSUM_OFFSET, checksum(fingerprint, slot));
+        map.put(slot, fingerprint);
+    }
+
+    // the checksum of a slot as it is stored
+    private byte[] checksum(final int slot) {
+        byte[] fingerprint = new byte[16];
+        map.get(slot, fingerprint);
+        return checksum(fingerprint, slot);
+    }
+
+    // the checksum over a fingerprint and the attributes and digest stored in a slot, without
+    // the last use that every hit updates
+    private byte[] checksum(final byte[] fingerprint, final int slot) {
+        byte[] fields = new byte[24 + 64];
+        map.get(slot + 16, fields, 0, 24);
+        map.get(slot + DIGEST_OFFSET, fields, 24, 64);
+        return KMACXOF256("".getBytes(), concat(fingerprint, fields), 128, "DCS".getBytes());
+    }
+
+    private byte[] storedChecksum(final int slot) {
+        byte[] stored = new byte[16];
+        map.get(slot + CHECKSUM_OFFSET, stored);
+        return stored;
+    }
+
+    // offset of the slot holding a fingerprint, or -1
+    private int find(final byte[] fingerprint) {
+        int first = setOf(fingerprint);
+        byte[] stored = new byte[16];
+        for (int way = 0; way < WAYS; way++) {
+            int slot = first + way * SLOT_SIZE;
+            map.get(slot, stored);
+            if (Arrays.equals(stored, fingerprint)) return slot;
+        }
+        return -1;
+    }
+
+    // offset of the first slot of the set a fingerprint belongs to
+    private int setOf(final byte[] fingerprint) {
+        long h = ByteBuffer.wrap(fingerprint).getLong();
+        return HEADER_SIZE + (int) Long.remainderUnsigned(h, sets) * WAYS * SLOT_SIZE;
+    }
+
+    // whether a slot was computed for the file with these attributes
+    private boolean matches(final int slot, final BasicFileAttributes attributes) {
+        return map.getLong(slot + 16) == attributes.size()
+                && map.getLong(slot + 24) == attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS)
+                && map.getLong(slot + 32) == fileKeyHash(attributes);
+    }
+
+    private static boolean sameVersion(final BasicFileAttributes a, final BasicFileAttributes b) {
+        return a.size() == b.size() && a.lastModifiedTime().equals(b.lastModifiedTime())
+                && fileKeyHash(a) == fileKeyHash(b);
+    }
+
+    // the 128-bit identity of an entry, a path never contains a 0 byte so the input is unambiguous
+    private static byte[] fingerprint(final Path path, final byte[] key, final byte[] customString) {
+        byte[] in = concat(concat(path.toString().getBytes(StandardCharsets.UTF_8), new byte[1]), customString);
+        return KMACXOF256(key, in, 128, "DC".getBytes());
+    }
+
+    // 64-bit FNV-1a hash of the file key (device and inode on Unix), 0 where there is none
+    private static long fileKeyHash(final BasicFileAttributes attributes) {
+        Object fileKey = attributes.fileKey();
+        if (fileKey == null) return 0;
+        long h = 0xcbf29ce484222325L;
+        for (byte b : fileKey.toString().getBytes(StandardCharsets.UTF_8)) {
+            h = (h ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /************************************************************
+     *                         Getters                          *
+     ************************************************************/
+
+    public int getCapacity() {
+        return sets * WAYS;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
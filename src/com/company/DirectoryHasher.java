@@ -0,0 +1,240 @@
+package com.company;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.company.KMAC.*;
+
+/**
+ * Hashes a whole directory tree on a work-stealing pool and writes a manifest with one line per
+ * regular file, sorted by relative path:
+ *   digest  mode  relative/path
+ * where mode "f" means the digest is the 512-bit KMACXOF256 hash of the file (as printed by the
+ * batch hash command) and mode "m" means it is the Merkle root of the file with SPLIT_LEAF_SIZE
+ * leaves (as printed by the batch tree command with --leaf 8388608). Files up to SPLIT_SIZE are
+ * hashed flat; small files are grouped into batches so one task does not cover a single tiny
+ * file, larger files are split into their leaves so one big file keeps every worker busy.
+ *
+ * The root digest of the tree is KMACXOF256("", manifest bytes, 512, "DR"), and the manifest can
+ * be signed in prehash mode like the signing service does for a file.
+ */
+public class DirectoryHasher {
+
+    /**
+     * files up to this size are grouped into batches
+     */
+    public static final long SMALL_FILE_SIZE = 64 << 10;
+
+    /**
+     * files larger than this are hashed as Merkle trees with their leaves in parallel
+     */
+    public static final long SPLIT_SIZE = 64 << 20;
+
+    /**
+     * leaf size of the Merkle trees of split files
+     */
+    public static final int SPLIT_LEAF_SIZE = 8 << 20;
+
+    private static final long BATCH_BYTES = 4 << 20;
+
+    private static final int BATCH_FILES = 256;
+
+    /**
+     * Hashes every regular file below a directory and writes the manifest. The manifest and its
+     * signature file (manifest.sig) are left out if they lie inside the tree, so a second run
+     * does not hash the output of the first.
+     * @param root the directory
+     * @param manifest the manifest file
+     * @param threads the parallelism of the pool
+     * @return the root digest of the tree
+     * @throws IOException if the tree can not be walked, a file can not be read, a file name
+     *         contains a line break or the manifest can not be written
+     */
+    public static byte[] hashTree(final Path root, final Path manifest, final int threads) throws IOException {
+        Path manifestPath = manifest.toAbsolutePath().normalize();
+        Path signaturePath = Path.of(manifestPath + ".sig");
+        List<Entry> entries;
+        try (Stream<Path> walk = Files.walk(root)) {
+            entries = walk.filter(Files::isRegularFile)
+                    .filter(file -> {
+                        Path absolute = file.toAbsolutePath().normalize();
+                        return !absolute.equals(manifestPath) && !absolute.equals(signaturePath);
+                    })
+                    .map(file -> new Entry(file, root.relativize(file)))
+                    .sorted(Comparator.comparing(entry -> entry.name))
+                    .collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        for (Entry entry : entries) {
+            //a manifest line ends at the line break, so such a name would be ambiguous
+            if (entry.name.indexOf('\n') >= 0 || entry.name.indexOf('\r') >= 0) {
+                throw new IOException("File name contains a line break: " + entry.file);
+            }
+        }
+
+        List<RecursiveAction> units = new ArrayList<>();
+        List<Entry> batch = new ArrayList<>();
+        long batchBytes = 0;
+        for (Entry entry : entries) {
+            if (entry.size <= SMALL_FILE_SIZE) {
+                batch.add(entry);
+                batchBytes += entry.size;
+                if (batchBytes >= BATCH_BYTES || batch.size() == BATCH_FILES) {
+                    units.add(new Batch(batch));
+                    batch = new ArrayList<>();
+                    batchBytes = 0;
+                }
+            } else if (entry.size <= SPLIT_SIZE) {
+                units.add(new Batch(List.of(entry)));
+            } else {
+                units.add(new Split(entry));
+            }
+        }
+        if (!batch.isEmpty()) units.add(new Batch(batch));
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(units);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdownNow();
+        }
+
+        StringBuilder lines = new StringBuilder();
+        for (Entry entry : entries) {
+            lines.append(bytesToHexString(entry.digest).replace(" ", "")).append("  ")
+                    .append(entry.size > SPLIT_SIZE ? 'm' : 'f').append("  ").append(entry.name).append('\n');
+        }
+        byte[] bytes = lines.toString().getBytes(StandardCharsets.UTF_8);
+        Files.write(manifest, bytes);
+        return KMACXOF256("".getBytes(), bytes, 512, "DR".getBytes());
+    }
+
+    /**
+     * Signs a manifest in prehash mode and writes the signature file (h, z, PH) that the
+     * verification service and the batch verify command read.
+     * @param manifest the manifest
+     * @param passphrase the passphrase of the signing key
+     * @param signature the signature file
+     * @throws IOException if the manifest can not be read or the signature written
+     */
+    public static void signManifest(final Path manifest, final String passphrase, final Path signature) throws IOException {
+        byte[] s = CryptoService.privateKey(passphrase);
+        byte[][] hz = Main.signPrehashEC(manifest, s);
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(signature.toFile()))) {
+            out.write(bytesToHexString(hz[0]) + "\n");
+            out.write(bytesToHexString(hz[1]) + "\n");
+            out.write("PH\n");
+        }
+    }
+
+    /************************************************************
+     *                          Tasks                           *
+     ************************************************************/
+
+    // a regular file of the tree and, once hashed, its digest
+    private static final class Entry {
+        final Path file;
+        final String name;
+        final long size;
+        byte[] digest;
+
+        Entry(final Path file, final Path relative) {
+            this.file = file;
+            this.name = relative.toString().replace(relative.getFileSystem().getSeparator(), "/");
+            try {
+                this.size = Files.size(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // hashes a group of files flat, one after the other
+    private static final class Batch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Entry> entries;
+
+        Batch(final List<Entry> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        protected void compute() {
+            for (Entry entry : entries) {
+                try {
+                    entry.digest = absorbFile(KMACXOF256Sponge("".getBytes(), "D".getBytes()), entry.file).squeeze(64);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Can not hash " + entry.file, e);
+                }
+            }
+        }
+    }
+
+    // hashes a large file as a Merkle tree, forking one task per leaf
+    private static final class Split extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Entry entry;
+
+        Split(final Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        protected void compute() {
+            int leaves = (int) ((entry.size + SPLIT_LEAF_SIZE - 1) / SPLIT_LEAF_SIZE);
+            byte[][] digests = new byte[leaves][];
+            List<RecursiveAction> tasks = new ArrayList<>(leaves);
+            for (int i = 0; i < leaves; i++) {
+                int leaf = i;
+                tasks.add(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        digests[leaf] = readLeaf(leaf);
+                    }
+                });
+            }
+            invokeAll(tasks);
+            entry.digest = MerkleTree.root(digests, entry.size, SPLIT_LEAF_SIZE);
+        }
+
+        private byte[] readLeaf(final int leaf) {
+            long position = (long) leaf * SPLIT_LEAF_SIZE;
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(SPLIT_LEAF_SIZE, entry.size - position));
+            try (FileChannel in = FileChannel.open(entry.file, StandardOpenOption.READ)) {
+                while (buffer.hasRemaining()) {
+                    int n = in.read(buffer, position);
+                    if (n == -1) throw new IOException(entry.file + " shrank while it was hashed");
+                    position += n;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Can not hash " + entry.file, e);
+            }
+            return MerkleTree.leafDigest(buffer.array());
+        }
+    }
+}
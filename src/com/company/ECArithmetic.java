@@ -7,8 +7,27 @@ public class ECArithmetic {
     private static final BigInteger p = new BigInteger("726838724295606890549323807888004534353641360687318060281490199180612328166730772686396383698676545930088884461843637361053498018365439");
     private static final BigInteger r = new BigInteger("181709681073901722637330951972001133588410340171829515070372549795146003961539585716195755291692375963310293709091662304773755859649779");
 
-    private static BigInteger b = new BigInteger("8");
-    private static BigInteger c = new BigInteger("563400200929088152613609629378641385410102682117258566404750214022059686929583319585040850282322731241505930835997382613319689400286258");
+    private static final BigInteger b = new BigInteger("8");
+    private static final BigInteger c = new BigInteger("563400200929088152613609629378641385410102682117258566404750214022059686929583319585040850282322731241505930835997382613319689400286258");
+
+    private static final BigInteger d = BigInteger.valueOf(-39081);
+
+    // Montgomery model B*v^2 = u^3 + A*u^2 + u of ed448: A = 2(1 + d)/(1 - d), B = 4/(1 - d)
+    private static final BigInteger montB = BigInteger.valueOf(4).multiply(BigInteger.ONE.subtract(d).modInverse(p)).mod(p);
+    private static final BigInteger montA = BigInteger.TWO.multiply(BigInteger.ONE.add(d)).multiply(BigInteger.ONE.subtract(d).modInverse(p)).mod(p);
+    private static final BigInteger montA24 = montA.add(BigInteger.TWO).multiply(BigInteger.valueOf(4).modInverse(p)).mod(p);
+
+    // length of a compressed point in bytes
+    public static final int ENCODED_LENGTH = 57;
+
+    // bits per window of the fixed-window multiplication
+    private static final int WINDOW_BITS = 4;
+
+    // window table of the generator G, shared by every fixed-base multiplication
+    private static final BigInteger[][] G_TABLE = windowTable(getG());
+
+    // the ladder always runs over this many bits so its cost does not depend on the scalar
+    private static final int LADDER_BITS = 512;
 
     public static void main(String[] args) {
         Point G = new Point(b,c);
@@ -22,38 +41,69 @@ public class ECArithmetic {
         System.out.println("BigInteger " + c);
         System.out.println("Y decoded from Px " + Arrays.toString(toByteArrayLittleEndian(decode(b, false).getPy())));
         System.out.println("BigInteger " + decode(b, false).getPy());
-        System.out.println("P1 encoded " + Arrays.toString(encode(G).toByteArray()));
-        System.out.println("BigInteger " + encode(G));
+        System.out.println("P1 encoded " + Arrays.toString(encode(G)));
+        System.out.println("P1 decoded " + compare(G, decode(encode(G))));
         System.out.println("P: " + p);
     }
 
     /**
-     * Takes a point and encodes per specification. Y in little-endian with most significant octet as zero.
-     * Then place the least significant byte from X into most significant byte of Y.
+     * Takes a point and encodes it in the 57-byte compressed form of RFC 8032: y in
+     * little-endian with the most significant octet zero, then the least significant bit
+     * of x placed into the most significant bit of the final octet.
      * @param P The given point on ed448 curve
-     * @return BigInteger representation of encoded point
+     * @return the 57-byte encoding of the point
      */
-    public static BigInteger encode(Point P) {
-        byte[] encoded = toByteArrayLittleEndian(P.getPy());
-        byte[] x = toByteArrayLittleEndian(P.getPx());
-        encoded[encoded.length -1] = x[0];
-        return new BigInteger(encoded);
+    public static byte[] encode(Point P) {
+        byte[] encoded = new byte[ENCODED_LENGTH];
+        byte[] y = toByteArrayLittleEndian(P.getPy().mod(p));
+        System.arraycopy(y, 0, encoded, 0, Math.min(y.length, ENCODED_LENGTH));
+        if (P.getPx().mod(p).testBit(0)) {
+            encoded[ENCODED_LENGTH - 1] |= (byte) 0x80;
+        }
+        return encoded;
     }
 
+    /**
+     * Decodes a point from its 57-byte compressed form (see encode). x is recovered from
+     * x^2 = (y^2 - 1)/(d*y^2 - 1) with a single combined inverse square root exponentiation.
+     * @param encoded the 57-byte encoding of a point
+     * @return the decoded point
+     * @throws IllegalArgumentException if the bytes do not encode a point on ed448
+     */
+    public static Point decode(byte[] encoded) {
+        if (encoded.length != ENCODED_LENGTH || (encoded[ENCODED_LENGTH - 1] & 0x7F) != 0) {
+            throw new IllegalArgumentException("Not a valid encoded point.");
+        }
+        boolean lsb = (encoded[ENCODED_LENGTH - 1] & 0x80) != 0;
+        byte[] bigEndian = new byte[ENCODED_LENGTH];
+        for (int i = 0; i < ENCODED_LENGTH - 1; i++) {
+            bigEndian[ENCODED_LENGTH - 1 - i] = encoded[i];
+        }
+        BigInteger y = new BigInteger(1, bigEndian);
+        if (y.compareTo(p) >= 0) {
+            throw new IllegalArgumentException("Not a valid encoded point.");
+        }
+
+        BigInteger y2 = y.multiply(y).mod(p);
+        BigInteger x = sqrtRatio(y2.subtract(BigInteger.ONE), d.multiply(y2).subtract(BigInteger.ONE), lsb);
+        if (x == null) {
+            throw new IllegalArgumentException("Not a valid encoded point.");
+        }
+        return new Point(x, y);
+    }
 
     /**
      * Given BigInteger x from a point (x,y) and the least significant bit of y. Decode the
-     * BigInteger y.
+     * BigInteger y from y^2 = (1 - x^2)/(1 - d*x^2) with a single combined inverse square
+     * root exponentiation.
      * @param x coordinate of a point on ed448
      * @param lsb desired least significant bit (true: 1, false: 0).
-     * @return the decoded point
+     * @return the decoded point, or null if x is not the x coordinate of a point with that lsb
      */
     public static Point decode(BigInteger x, boolean lsb) {
-        //TODO not checking actual bit may cause a problem
-        BigInteger inverse = (BigInteger.ONE.add(new BigInteger("39081").multiply(x.pow(2)))).modInverse(p);
-        BigInteger radicand = (BigInteger.ONE.subtract(x.pow(2))).multiply(inverse);
-
-        return new Point(x,computeSqrt(radicand, p, lsb));
+        BigInteger x2 = x.multiply(x).mod(p);
+        BigInteger y = sqrtRatio(BigInteger.ONE.subtract(x2), BigInteger.ONE.subtract(d.multiply(x2)), lsb);
+        return y == null ? null : new Point(x.mod(p), y);
     }
 
     // method to compare points for equality
@@ -61,10 +111,9 @@ public class ECArithmetic {
         return (P1.getPx().compareTo(P2.getPx()) == 0) && (P1.getPy().compareTo(P2.getPy()) == 0);
     }
 
-    // method to obtain the opposite of a point
+    // method to obtain the opposite of a point, P itself is left as it is
     public static Point opposite(Point P) {
-        P.setPx(P.getPx().multiply(BigInteger.valueOf(-1)));
-        return P;
+        return new Point(P.getPx().negate(), P.getPy());
     }
 
     //method that can perform scalar multiplication
@@ -89,7 +138,9 @@ public class ECArithmetic {
         if (v.signum() == 0) {
             return BigInteger.ZERO;
         }
+        long start = CryptoMetrics.start();
         BigInteger r = v.modPow(p.shiftRight(2).add(BigInteger.ONE), p);
+        CryptoMetrics.sqrt(start);
         if (r.testBit(0) != lsb) {
             r = p.subtract(r); // correct the lsb
         }
@@ -97,30 +148,81 @@ public class ECArithmetic {
     }
 
     /**
-     * Performs scalar multiplication
+     * Computes a square root of u/v mod p with a specified least significant bit using one
+     * exponentiation, r = u^3 v (u^5 v^3)^((p-3)/4), instead of an inversion followed by
+     * a separate square root (RFC 8032 sec. 5.2.3).
+     * @param u the numerator.
+     * @param v the denominator.
+     * @param lsb desired least significant bit (true: 1, false: 0).
+     * @return a square root r of u/v mod p with r mod 2 = 1 iff lsb = true
+     * if such a root exists, otherwise null.
+     */
+    public static BigInteger sqrtRatio(BigInteger u, BigInteger v, boolean lsb) {
+        u = u.mod(p);
+        v = v.mod(p);
+        BigInteger u2 = u.multiply(u).mod(p);
+        BigInteger u3v = u2.multiply(u).mod(p).multiply(v).mod(p);
+        BigInteger u5v3 = u3v.multiply(u2).mod(p).multiply(v.multiply(v)).mod(p);
+        long start = CryptoMetrics.start();
+        BigInteger r = u3v.multiply(u5v3.modPow(p.shiftRight(2), p)).mod(p); // (p-3)/4 = floor(p/4)
+        CryptoMetrics.sqrt(start);
+
+        if (v.multiply(r).multiply(r).subtract(u).mod(p).signum() != 0) {
+            return null;
+        }
+        if (r.signum() == 0) {
+            return lsb ? null : r;
+        }
+        return r.testBit(0) == lsb ? r : p.subtract(r);
+    }
+
+    /**
+     * Performs scalar multiplication. The double-and-add loop runs in projective
+     * coordinates so only a single inversion is needed at the end, and a negative
+     * scalar multiplies the opposite point.
      * @param P The point to be scaled
      * @param s The scalar
      * @return Scaled point
      */
     public static Point exponentiation(Point P, BigInteger s) {
-        String bin = s.toString(2);
         if(s.equals(BigInteger.ZERO)) {
-            return new Point(BigInteger.ZERO, BigInteger.ONE);
-        } else if(bin.length() == 1) {
-            return P;
-        } else {
-            Point G = P;
-            for (int i = 1 ; i < bin.length(); i++) {
-                G = add(G, G);
-                if (bin.charAt(i) == '1') {
-                    G = add(G, P);
+            return neutralElement();
+        }
+        return toAffine(multiScalar(new Point[] {P}, new BigInteger[] {s}));
+    }
+
+    /**
+     * Computes s1*P1 + s2*P2 + ... + sn*Pn with one shared chain of doublings
+     * (Straus' interleaving, also known as Shamir's trick for n = 2).
+     * @param P the points to be scaled
+     * @param s the scalars, s[i] is applied to P[i]
+     * @return the projective sum of all scaled points
+     */
+    public static BigInteger[] multiScalar(Point[] P, BigInteger[] s) {
+        if (P.length != s.length) throw new IllegalArgumentException("Need exactly one scalar per point.");
+        long start = CryptoMetrics.start();
+        BigInteger[][] base = new BigInteger[P.length][];
+        BigInteger[] abs = new BigInteger[s.length];
+        int bits = 0;
+        for (int i = 0; i < P.length; i++) {
+            base[i] = toProjective(s[i].signum() < 0 ? negate(P[i]) : P[i]);
+            abs[i] = s[i].abs();
+            bits = Math.max(bits, abs[i].bitLength());
+        }
+
+        BigInteger[] acc = toProjective(neutralElement());
+        for (int j = bits - 1; j >= 0; j--) {
+            acc = projectiveDouble(acc);
+            for (int i = 0; i < base.length; i++) {
+                if (abs[i].testBit(j)) {
+                    acc = projectiveAdd(acc, base[i]);
                 }
             }
-            return G;
         }
+        CryptoMetrics.scalarMultiplication(false, P.length, start);
+        return acc;
     }
 
-
     /**
      * Performs Edwards addition on 2 points
      * @param P1
@@ -137,7 +239,295 @@ public class ECArithmetic {
         BigInteger PY3Bottom = one.subtract(d.multiply(P1.getPx().multiply(P2.getPx()).multiply(P1.getPy()).multiply(P2.getPy())));
 
         //don't do normal division in different modulus
-        return new Point(PX3Top.multiply(PX3Bottom.modInverse(p)).mod(p), PY3Top.multiply(PY3Bottom.modInverse(p)).mod(p));
+        return new Point(PX3Top.multiply(inverse(PX3Bottom)).mod(p), PY3Top.multiply(inverse(PY3Bottom)).mod(p));
+    }
+
+    /************************************************************
+     *                     Montgomery Ladder                    *
+     ************************************************************/
+
+    /**
+     * Computes only the x coordinate of s*P, the value the EC KEM derives ke || ka from.
+     * P is mapped to the Montgomery model B*v^2 = u^3 + A*u^2 + u that is birationally
+     * equivalent to ed448 (u = (1 + y)/(1 - y), v = u/x), a fixed length x-only ladder
+     * computes u(sP) and u((s+1)P), and the Okeya-Sakurai formula recovers v(sP) so that
+     * x(sP) = u/v can be mapped back. The 4-isogenous curve448 model is not used since
+     * its u coordinate does not determine the ed448 x coordinate.
+     * @param P The point to be scaled
+     * @param s The scalar
+     * @return the x coordinate of s*P, equal to exponentiation(P, s).getPx()
+     */
+    public static BigInteger exponentiationX(Point P, BigInteger s) {
+        BigInteger x = P.getPx().mod(p);
+        BigInteger y = P.getPy().mod(p);
+        if (x.signum() == 0 || s.signum() == 0) {
+            // (0, 1) and (0, -1) have no image on the Montgomery model
+            return exponentiation(P, s).getPx();
+        }
+
+        long start = CryptoMetrics.start();
+        BigInteger uP = BigInteger.ONE.add(y).multiply(inverse(BigInteger.ONE.subtract(y))).mod(p);
+        BigInteger vP = uP.multiply(inverse(x)).mod(p);
+
+        BigInteger k = s.abs();
+        BigInteger X2 = BigInteger.ONE, Z2 = BigInteger.ZERO;
+        BigInteger X3 = uP, Z3 = BigInteger.ONE;
+        int swap = 0;
+        for (int t = Math.max(LADDER_BITS, k.bitLength()) - 1; t >= 0; t--) {
+            int bit = k.testBit(t) ? 1 : 0;
+            swap ^= bit;
+            BigInteger dummy = X2.subtract(X3).multiply(BigInteger.valueOf(swap));
+            X2 = X2.subtract(dummy);
+            X3 = X3.add(dummy);
+            dummy = Z2.subtract(Z3).multiply(BigInteger.valueOf(swap));
+            Z2 = Z2.subtract(dummy);
+            Z3 = Z3.add(dummy);
+            swap = bit;
+
+            BigInteger A = X2.add(Z2);
+            BigInteger AA = A.multiply(A).mod(p);
+            BigInteger B = X2.subtract(Z2);
+            BigInteger BB = B.multiply(B).mod(p);
+            BigInteger E = AA.subtract(BB);
+            BigInteger C = X3.add(Z3);
+            BigInteger D = X3.subtract(Z3);
+            BigInteger DA = D.multiply(A).mod(p);
+            BigInteger CB = C.multiply(B).mod(p);
+            X3 = DA.add(CB).pow(2).mod(p);
+            Z3 = uP.multiply(DA.subtract(CB).pow(2)).mod(p);
+            X2 = AA.multiply(BB).mod(p);
+            Z2 = E.multiply(BB.add(montA24.multiply(E))).mod(p);
+        }
+        BigInteger dummy = X2.subtract(X3).multiply(BigInteger.valueOf(swap));
+        X2 = X2.subtract(dummy);
+        X3 = X3.add(dummy);
+        dummy = Z2.subtract(Z3).multiply(BigInteger.valueOf(swap));
+        Z2 = Z2.subtract(dummy);
+        Z3 = Z3.add(dummy);
+
+        BigInteger xQ;
+        if (Z2.signum() == 0 || X2.signum() == 0) {
+            xQ = BigInteger.ZERO;                // sP is (0, 1) or (0, -1)
+        } else if (Z3.signum() == 0) {
+            xQ = p.subtract(x);                  // sP = -P
+        } else {
+            BigInteger u1 = X2.multiply(inverse(Z2)).mod(p);
+            BigInteger u2 = X3.multiply(inverse(Z3)).mod(p);
+            // Okeya-Sakurai y-recovery for the Montgomery point sP = (u1, v1)
+            BigInteger top = u1.multiply(uP).add(BigInteger.ONE)
+                    .multiply(u1.add(uP).add(montA.shiftLeft(1)))
+                    .subtract(montA.shiftLeft(1))
+                    .subtract(u1.subtract(uP).pow(2).multiply(u2)).mod(p);
+            BigInteger v1 = top.multiply(inverse(montB.shiftLeft(1).multiply(vP))).mod(p);
+            xQ = u1.multiply(inverse(v1)).mod(p);
+        }
+        CryptoMetrics.scalarMultiplication(false, 1, start);
+        return s.signum() < 0 ? p.subtract(xQ).mod(p) : xQ;
+    }
+
+    /************************************************************
+     *                   Projective Arithmetic                  *
+     ************************************************************/
+
+    /**
+     * Lifts an affine point (x, y) to projective coordinates (X : Y : Z) = (x : y : 1).
+     * @param P the affine point
+     * @return the projective point as {X, Y, Z}
+     */
+    public static BigInteger[] toProjective(Point P) {
+        return new BigInteger[] {P.getPx().mod(p), P.getPy().mod(p), BigInteger.ONE};
+    }
+
+    /**
+     * Converts a projective point (X : Y : Z) back to the affine point (X/Z, Y/Z).
+     * @param P the projective point as {X, Y, Z}
+     * @return the affine point
+     */
+    public static Point toAffine(BigInteger[] P) {
+        BigInteger zInv = inverse(P[2]);
+        return new Point(P[0].multiply(zInv).mod(p), P[1].multiply(zInv).mod(p));
+    }
+
+    /**
+     * Precomputes the window table {0*P, 1*P, ..., 15*P} used by the fixed-window
+     * multiplications, so repeated multiplications of the same point skip those additions.
+     * @param P the point to precompute multiples of
+     * @return the projective multiples of P
+     */
+    public static BigInteger[][] windowTable(Point P) {
+        BigInteger[][] table = new BigInteger[1 << WINDOW_BITS][];
+        table[0] = toProjective(neutralElement());
+        table[1] = toProjective(P);
+        for (int i = 2; i < table.length; i++) {
+            table[i] = (i & 1) == 0 ? projectiveDouble(table[i >> 1]) : projectiveAdd(table[i - 1], table[1]);
+        }
+        return table;
+    }
+
+    /**
+     * Fixed-base scalar multiplication s*G using the precomputed window table of G.
+     * @param s The scalar
+     * @return the projective point s*G
+     */
+    public static BigInteger[] exponentiationG(BigInteger s) {
+        return multiScalar(new BigInteger[][][] {G_TABLE}, new BigInteger[] {s});
+    }
+
+    // returns a copy of the window table of G, the shared one is only used internally
+    public static BigInteger[][] getGTable() {
+        BigInteger[][] table = new BigInteger[G_TABLE.length][];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = G_TABLE[i].clone();
+        }
+        return table;
+    }
+
+    /**
+     * Computes s1*P1 + ... + sn*Pn from precomputed window tables (see windowTable),
+     * sharing the doublings between all points and adding one table entry per 4-bit window.
+     * @param tables the window table of every point
+     * @param s the scalars, s[i] is applied to the point of tables[i]
+     * @return the projective sum of all scaled points
+     */
+    public static BigInteger[] multiScalar(BigInteger[][][] tables, BigInteger[] s) {
+        if (tables.length != s.length) throw new IllegalArgumentException("Need exactly one scalar per point.");
+        long start = CryptoMetrics.start();
+        BigInteger[] abs = new BigInteger[s.length];
+        int bits = 0;
+        for (int i = 0; i < s.length; i++) {
+            abs[i] = s[i].abs();
+            bits = Math.max(bits, abs[i].bitLength());
+        }
+
+        BigInteger[] acc = toProjective(neutralElement());
+        for (int w = (bits + WINDOW_BITS - 1) / WINDOW_BITS - 1; w >= 0; w--) {
+            for (int j = 0; j < WINDOW_BITS; j++) {
+                acc = projectiveDouble(acc);
+            }
+            for (int i = 0; i < tables.length; i++) {
+                int digit = abs[i].shiftRight(w * WINDOW_BITS).intValue() & ((1 << WINDOW_BITS) - 1);
+                if (digit != 0) {
+                    BigInteger[] T = tables[i][digit];
+                    acc = projectiveAdd(acc, s[i].signum() < 0 ? new BigInteger[] {p.subtract(T[0]), T[1], T[2]} : T);
+                }
+            }
+        }
+        if (CryptoMetrics.ENABLED) {
+            boolean fixedBase = true;
+            for (BigInteger[][] table : tables) {
+                fixedBase &= table == G_TABLE;
+            }
+            CryptoMetrics.scalarMultiplication(fixedBase, tables.length, start);
+        }
+        return acc;
+    }
+
+    /**
+     * Converts many projective points to affine at once with Montgomery's trick:
+     * a single modInverse plus 3(n-1) multiplications instead of n inversions.
+     * @param P the projective points as {X, Y, Z}, none of them may have Z = 0
+     * @return the affine points, in the same order
+     */
+    public static Point[] normalize(BigInteger[][] P) {
+        int n = P.length;
+        Point[] out = new Point[n];
+        if (n == 0) return out;
+
+        // prefix[i] = Z0 * Z1 * ... * Zi
+        BigInteger[] prefix = new BigInteger[n];
+        prefix[0] = P[0][2];
+        for (int i = 1; i < n; i++) {
+            prefix[i] = prefix[i - 1].multiply(P[i][2]).mod(p);
+        }
+
+        BigInteger inv = inverse(prefix[n - 1]);
+        for (int i = n - 1; i > 0; i--) {
+            BigInteger zInv = inv.multiply(prefix[i - 1]).mod(p); // 1/Zi
+            inv = inv.multiply(P[i][2]).mod(p);                   // 1/(Z0 * ... * Zi-1)
+            out[i] = new Point(P[i][0].multiply(zInv).mod(p), P[i][1].multiply(zInv).mod(p));
+        }
+        out[0] = new Point(P[0][0].multiply(inv).mod(p), P[0][1].multiply(inv).mod(p));
+        return out;
+    }
+
+    /**
+     * Scales one point by many scalars, e.g. to derive many public keys s*G at once.
+     * The results are normalized together with a single inversion.
+     * @param P The point to be scaled
+     * @param s the scalars
+     * @return the points s[i]*P, in the same order
+     */
+    public static Point[] exponentiationAll(Point P, BigInteger[] s) {
+        BigInteger[][] scaled = new BigInteger[s.length][];
+        for (int i = 0; i < s.length; i++) {
+            scaled[i] = multiScalar(new Point[] {P}, new BigInteger[] {s[i]});
+        }
+        return normalize(scaled);
+    }
+
+    /**
+     * Edwards addition in projective coordinates (add-2007-bl). The formula is
+     * complete on ed448 since d is not a square mod p, so it needs no special cases.
+     * @param P1 projective point {X1, Y1, Z1}
+     * @param P2 projective point {X2, Y2, Z2}
+     * @return the projective sum P1 + P2
+     */
+    public static BigInteger[] projectiveAdd(BigInteger[] P1, BigInteger[] P2) {
+        BigInteger A = P1[2].multiply(P2[2]).mod(p);
+        BigInteger B = A.multiply(A).mod(p);
+        BigInteger C = P1[0].multiply(P2[0]).mod(p);
+        BigInteger D = P1[1].multiply(P2[1]).mod(p);
+        BigInteger E = d.multiply(C).multiply(D).mod(p);
+        BigInteger F = B.subtract(E);
+        BigInteger G = B.add(E);
+        BigInteger H = P1[0].add(P1[1]).multiply(P2[0].add(P2[1])).subtract(C).subtract(D);
+
+        return new BigInteger[] {
+                A.multiply(F).mod(p).multiply(H).mod(p),
+                A.multiply(G).mod(p).multiply(D.subtract(C)).mod(p),
+                F.multiply(G).mod(p)
+        };
+    }
+
+    /**
+     * Edwards doubling in projective coordinates (dbl-2007-bl).
+     * @param P projective point {X, Y, Z}
+     * @return the projective point 2P
+     */
+    public static BigInteger[] projectiveDouble(BigInteger[] P) {
+        BigInteger B = P[0].add(P[1]).pow(2).mod(p);
+        BigInteger C = P[0].multiply(P[0]).mod(p);
+        BigInteger D = P[1].multiply(P[1]).mod(p);
+        BigInteger E = C.add(D);
+        BigInteger H = P[2].multiply(P[2]).mod(p);
+        BigInteger J = E.subtract(H.shiftLeft(1));
+
+        return new BigInteger[] {
+                B.subtract(E).multiply(J).mod(p),
+                E.multiply(C.subtract(D)).mod(p),
+                E.multiply(J).mod(p)
+        };
+    }
+
+    /**
+     * Inverts a field element mod p.
+     * @param a the element, must not be 0 mod p
+     * @return 1/a mod p
+     */
+    private static BigInteger inverse(BigInteger a) {
+        long start = CryptoMetrics.start();
+        BigInteger inv = a.modInverse(p);
+        CryptoMetrics.inversion(start);
+        return inv;
+    }
+
+    /**
+     * Returns the opposite (-x, y) of a point without modifying it.
+     * @param P the point to negate
+     * @return the opposite point
+     */
+    private static Point negate(Point P) {
+        return new Point(p.subtract(P.getPx().mod(p)).mod(p), P.getPy());
     }
 
     /**
@@ -190,4 +580,9 @@ public class ECArithmetic {
     public static  BigInteger getP() {
         return p;
     }
+
+    // returns a fresh copy of the public generator G = (8, c)
+    public static Point getG() {
+        return new Point(b, c);
+    }
 }
@@ -0,0 +1,235 @@
+package com.company;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * A bounded pool of precomputed ephemeral key pairs (k, Z = k*G) for EC encryption.
+ * Z = k*G only depends on fresh randomness, so a background worker keeps the pool filled and
+ * an online encryption is left with the variable-base multiplication k*V and the symmetric work.
+ * Every pair is handed out exactly once and its nonce should be destroyed after use.
+ */
+public class EphemeralKeyPool implements AutoCloseable {
+
+    /**
+     * default number of pairs kept ready
+     */
+    public static final int DEFAULT_DEPTH = 16;
+
+    /**
+     * default pause of the worker between two generated pairs (0 means as fast as possible)
+     */
+    public static final long DEFAULT_REFILL_DELAY_MILLIS = 0;
+
+    private final BlockingQueue<EphemeralKey> pool;
+
+    private final SecureRandom random;
+
+    private final long refillDelayMillis;
+
+    private final Thread worker;
+
+    private final AtomicLong generated = new AtomicLong();
+
+    private final AtomicLong taken = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a pool and starts its background worker.
+     * @param depth the maximum number of pairs kept ready
+     * @param refillDelayMillis pause of the worker between two generated pairs
+     * @param random the source of the nonces
+     */
+    public EphemeralKeyPool(final int depth, final long refillDelayMillis, final SecureRandom random) {
+        if (depth < 1) throw new IllegalArgumentException("Pool depth must be positive.");
+        if (refillDelayMillis < 0) throw new IllegalArgumentException("Refill delay must not be negative.");
+        this.pool = new ArrayBlockingQueue<>(depth);
+        this.random = random;
+        this.refillDelayMillis = refillDelayMillis;
+        this.worker = new Thread(this::refill, "ephemeral-key-pool");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Creates a pool configured by the system properties ec.pool.depth and
+     * ec.pool.refillDelayMillis, falling back to the defaults.
+     * @param random the source of the nonces
+     * @return the started pool
+     */
+    public static EphemeralKeyPool fromSystemProperties(final SecureRandom random) {
+        return new EphemeralKeyPool(Integer.getInteger("ec.pool.depth", DEFAULT_DEPTH),
+                Long.getLong("ec.pool.refillDelayMillis", DEFAULT_REFILL_DELAY_MILLIS), random);
+    }
+
+    /**
+     * Takes a pair out of the pool. If the pool is empty the pair is computed inline
+     * rather than waiting for the worker.
+     * @return a pair that has not been handed out before
+     */
+    public EphemeralKey take() {
+        if (closed) throw new IllegalStateException("Pool is closed.");
+        EphemeralKey key = pool.poll();
+        if (key == null) {
+            misses.incrementAndGet();
+            key = generate();
+        }
+        taken.incrementAndGet();
+        return key;
+    }
+
+    /**
+     * Takes n pairs out of the pool. Pairs the pool can not supply are computed in parallel
+     * and normalized together with a single inversion.
+     * @param n the number of pairs
+     * @return n pairs that have not been handed out before
+     */
+    public EphemeralKey[] takeAll(final int n) {
+        if (closed) throw new IllegalStateException("Pool is closed.");
+        EphemeralKey[] keys = new EphemeralKey[n];
+        int ready = 0;
+        EphemeralKey key;
+        while (ready < n && (key = pool.poll()) != null) {
+            keys[ready++] = key;
+        }
+
+        int missing = n - ready;
+        byte[][] k = new byte[missing][64];
+        BigInteger[][] Z = new BigInteger[missing][];
+        for (int i = 0; i < missing; i++) {
+            random.nextBytes(k[i]);
+        }
+        IntStream.range(0, missing).parallel()
+                .forEach(i -> Z[i] = ECArithmetic.exponentiationG(new BigInteger(k[i])));
+        Point[] affine = ECArithmetic.normalize(Z);
+        for (int i = 0; i < missing; i++) {
+            keys[ready + i] = new EphemeralKey(k[i], affine[i]);
+        }
+
+        generated.addAndGet(missing);
+        if (missing > 0) misses.incrementAndGet();
+        taken.addAndGet(n);
+        return keys;
+    }
+
+    /**
+     * Stops the worker and destroys every pair that is still queued.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        worker.interrupt();
+        EphemeralKey key;
+        while ((key = pool.poll()) != null) {
+            key.destroy();
+        }
+    }
+
+    /************************************************************
+     *                      Helper Methods                      *
+     ************************************************************/
+
+    // body of the background worker
+    private void refill() {
+        try {
+            while (!closed) {
+                EphemeralKey key = generate();
+                while (!pool.offer(key, 1, TimeUnit.SECONDS)) {
+                    if (closed) {
+                        key.destroy();
+                        return;
+                    }
+                }
+                if (refillDelayMillis > 0) {
+                    Thread.sleep(refillDelayMillis);
+                }
+            }
+        } catch (InterruptedException e) {
+            // the pool was closed
+        }
+    }
+
+    // draws a fresh nonce and computes Z = k*G with the fixed-base table
+    private EphemeralKey generate() {
+        byte[] k = new byte[64];
+        random.nextBytes(k);
+        generated.incrementAndGet();
+        return EphemeralKey.fromNonce(k);
+    }
+
+    /************************************************************
+     *                         Getters                          *
+     ************************************************************/
+
+    // number of pairs that are ready right now
+    public int getAvailable() {
+        return pool.size();
+    }
+
+    public int getDepth() {
+        return pool.size() + pool.remainingCapacity();
+    }
+
+    public long getRefillDelayMillis() {
+        return refillDelayMillis;
+    }
+
+    public long getGenerated() {
+        return generated.get();
+    }
+
+    public long getTaken() {
+        return taken.get();
+    }
+
+    // number of take() calls that found the pool empty, plus takeAll() calls it could not fully serve
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "EphemeralKeyPool[available=" + getAvailable() + "/" + getDepth() + ", generated=" + getGenerated()
+                + ", taken=" + getTaken() + ", misses=" + getMisses() + "]";
+    }
+
+    /**
+     * A one time nonce k together with Z = k*G.
+     */
+    public static final class EphemeralKey {
+        private final byte[] k;
+        private final Point Z;
+
+        private EphemeralKey(byte[] k, Point Z) {
+            this.k = k;
+            this.Z = Z;
+        }
+
+        /**
+         * Creates a pair outside of any pool by computing Z = k*G directly.
+         * @param k the nonce, destroyed together with the pair
+         * @return the pair (k, k*G)
+         */
+        public static EphemeralKey fromNonce(byte[] k) {
+            return new EphemeralKey(k, ECArithmetic.toAffine(ECArithmetic.exponentiationG(new BigInteger(k))));
+        }
+
+        public byte[] getK() { return k; }
+
+        public Point getZ() { return Z; }
+
+        // overwrites the nonce so it can not be used again
+        public void destroy() {
+            Arrays.fill(k, (byte) 0);
+        }
+    }
+}
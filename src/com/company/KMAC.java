@@ -1,11 +1,16 @@
 package com.company;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 
 
 /**
- * Implementation of KMACXOF256
+ * Implementation of KMACXOF256, and of KMACXOF128 on the same sponge for callers that only
+ * need 128-bit security
  * Inspiration for implementation of keccak sponge taken from NWc0de and mjosaarinen
  * https://github.com/mjosaarinen/tiny_sha3/blob/master/sha3.c
  * https://github.com/NWc0de/KeccakUtils/blob/master/src/crypto/keccak/KCrypt.java
@@ -16,7 +21,7 @@ public class KMAC {
     /**
      * The round constants defined by specification of which there are 24
      */
-    private static final long[] keccakfRndc = {
+    static final long[] keccakfRndc = {
             0x0000000000000001L, 0x0000000000008082L, 0x800000000000808aL,
             0x8000000080008000L, 0x000000000000808bL, 0x0000000080000001L,
             0x8000000080008081L, 0x8000000000008009L, 0x000000000000008aL,
@@ -30,7 +35,7 @@ public class KMAC {
     /**
      * Rotation offsets for the roh function.
      */
-    private static final int[] keccakfRotc = {
+    static final int[] keccakfRotc = {
             1,  3,  6,  10, 15, 21, 28, 36, 45, 55, 2,  14,
             27, 41, 56, 8,  25, 43, 62, 18, 39, 61, 20, 44
     };
@@ -38,7 +43,7 @@ public class KMAC {
     /**
      * The position for each word with respect to lane shifts in pi function
      */
-    private static final int[] keccakfPilane = {
+    static final int[] keccakfPilane = {
             10, 7,  11, 17, 18, 3, 5,  16, 8,  21, 24, 4,
             15, 23, 19, 13, 12, 2, 20, 14, 22, 9,  6,  1
     };
@@ -49,12 +54,42 @@ public class KMAC {
 
 
     /**
-     * The Keccak permutation function
+     * The Keccak permutation function. The full 24 round Keccak-f[1600] runs on the selected
+     * engine, see KeccakEngines, and is applied to stateIn in place.
      * https://github.com/NWc0de/KeccakUtils/blob/master/src/crypto/keccak/KCrypt.java
      * @param stateIn the input state
      * @return the state after the Keccak permutations applied
      */
-    private static long[] keccak(long[] stateIn, int bitLen, int rounds) {
+    static long[] keccak(long[] stateIn, int bitLen, int rounds) {
+        if (bitLen == 1600 && rounds == 24) {
+            keccakf(stateIn);
+            return stateIn;
+        }
+        long start = CryptoMetrics.start();
+        long[] stateOut = keccakRounds(stateIn, bitLen, rounds);
+        CryptoMetrics.keccak(start);
+        return stateOut;
+    }
+
+    /**
+     * The 24 round Keccak-f[1600] permutation applied in place by the selected engine.
+     * @param st the state, an array of 25 longs ref FIPS 202 sec. 3.1.2
+     */
+    static void keccakf(long[] st) {
+        long start = CryptoMetrics.start();
+        KeccakEngines.selected().permute(st);
+        CryptoMetrics.keccak(start);
+    }
+
+    /**
+     * The round functions of the permutation applied one after the other, each to a fresh
+     * state. This is the reference engine.
+     * @param stateIn the input state
+     * @param bitLen the width of the permutation
+     * @param rounds the number of rounds
+     * @return the state after the Keccak permutations applied
+     */
+    static long[] keccakRounds(long[] stateIn, int bitLen, int rounds) {
         long[] stateOut = stateIn;
         int l = floorLog(bitLen/25);
         for (int i = 12 + 2*l - rounds; i < 12 + 2*l; i++) {
@@ -149,6 +184,8 @@ public class KMAC {
      * @return a byte array of bitLen bits produced by the keccakp permutations over the input
      */
     private static byte[] sponge(byte[] in, int bitLen, int cap) {
+        CryptoMetrics.absorbed(in.length);
+        CryptoMetrics.squeezed(bitLen / 8);
         int rate = 1600 - cap;
         byte[] padded = in.length % (rate / 8) == 0 ? in : padTenOne(rate, in); // one bit of padding already appended
         long[][] states = byteArrayToStates(padded, cap);
@@ -201,10 +238,7 @@ public class KMAC {
      * @return the message digest extracted from the keccakp based sponge
      */
     public static byte[] SHAKE256(byte[] in, int bitLen) {
-        byte[] uin = Arrays.copyOf(in, in.length + 1);
-        int bytesToPad = 136 - in.length % (136); // rate is 136 bytes
-        uin[in.length] = bytesToPad == 1 ? (byte) 0x9f : 0x1f; // pad with suffix defined in FIPS 202 sec. 6.2
-        return sponge(uin, bitLen, 512);
+        return shake(in, bitLen, 512);
     }
 
     /**
@@ -216,13 +250,7 @@ public class KMAC {
      * @return the message digest based on Keccak[512]
      */
     public static byte[] cSHAKE256(byte[] in, int bitLength, byte[] functionName, byte[] customStr) {
-        if (functionName.length == 0 && customStr.length == 0) return SHAKE256(in, bitLength);
-
-        byte[] fin = concat(encodeString(functionName), encodeString(customStr));
-        fin = concat(bytePad(fin, 136), in);
-        fin = concat(fin, new byte[] {0x04});
-
-        return sponge(fin, bitLength, 512);
+        return cShake(in, bitLength, functionName, customStr, 512);
     }
     
 
@@ -236,9 +264,186 @@ public class KMAC {
      * @return cSHAKE256
      */
     public static byte[] KMACXOF256(byte[] key, byte[] in, int bitLength, byte[] customString) {
+        return kmacXof(key, in, bitLength, customString, 512);
+    }
+
+    /************************************************************
+     *                        KMACXOF128                        *
+     ************************************************************/
+
+    /**
+     * SHAKE128, ref. NIST FIPS 202 sec. 6.2. Keccak[256] has a rate of 168 bytes, so it
+     * absorbs about 24% more input per permutation than SHAKE256, at 128-bit security.
+     * @param in the bytes to compute the digest of
+     * @param bitLen the desired length of the output
+     * @return the message digest based on Keccak[256]
+     */
+    public static byte[] SHAKE128(byte[] in, int bitLen) {
+        return shake(in, bitLen, 256);
+    }
+
+    /**
+     * cSHAKE128, ref sec 3.3 NIST SP 800-185
+     * @param in the byte array to hash
+     * @param bitLength the bit length of the desired output
+     * @param functionName the name of the function to use
+     * @param customStr the customization string
+     * @return the message digest based on Keccak[256]
+     */
+    public static byte[] cSHAKE128(byte[] in, int bitLength, byte[] functionName, byte[] customStr) {
+        return cShake(in, bitLength, functionName, customStr, 256);
+    }
+
+    /**
+     * The Keccak MAC with extensible output at 128-bit security, ref sec 4.3.1 NIST SP 800-185
+     * @param key is a key bit string of any length, including zero
+     * @param in is the main input bit string
+     * @param bitLength is an integer representing the requested output length in bits
+     * @param customString is an optional customization bit string
+     * @return cSHAKE128
+     */
+    public static byte[] KMACXOF128(byte[] key, byte[] in, int bitLength, byte[] customString) {
+        return kmacXof(key, in, bitLength, customString, 256);
+    }
+
+    // SHAKE with the given capacity, 512 for SHAKE256 and 256 for SHAKE128
+    private static byte[] shake(byte[] in, int bitLen, int cap) {
+        int rate = (1600 - cap) / 8;
+        byte[] uin = Arrays.copyOf(in, in.length + 1);
+        int bytesToPad = rate - in.length % rate;
+        uin[in.length] = bytesToPad == 1 ? (byte) 0x9f : 0x1f; // pad with suffix defined in FIPS 202 sec. 6.2
+        return sponge(uin, bitLen, cap);
+    }
+
+    // cSHAKE with the given capacity, the prefix is bytepadded to the rate
+    private static byte[] cShake(byte[] in, int bitLength, byte[] functionName, byte[] customStr, int cap) {
+        if (functionName.length == 0 && customStr.length == 0) return shake(in, bitLength, cap);
+
+        byte[] fin = concat(encodeString(functionName), encodeString(customStr));
+        fin = concat(bytePad(fin, (1600 - cap) / 8), in);
+        fin = concat(fin, new byte[] {0x04});
+
+        return sponge(fin, bitLength, cap);
+    }
+
+    // KMACXOF with the given capacity, the key is bytepadded to the rate
+    private static byte[] kmacXof(byte[] key, byte[] in, int bitLength, byte[] customString, int cap) {
+        long start = CryptoMetrics.start();
+        byte[] newX = concat(concat(bytePad(encodeString(key), (1600 - cap) / 8), in), rightEncode(BigInteger.ZERO));
+        byte[] out = cShake(newX, bitLength, "KMAC".getBytes(), customString, cap);
+        CryptoMetrics.kmac(customString, in.length, bitLength, start);
+        return out;
+    }
+
+    /************************************************************
+     *                   Incremental Sponges                    *
+     ************************************************************/
+
+    /**
+     * Creates an incremental SHAKE256 instance, see SHAKE256.
+     * @return an empty sponge whose output equals SHAKE256 of everything absorbed
+     */
+    public static Sponge SHAKE256Sponge() {
+        return new Sponge(512, (byte) 0x1f, true, new byte[0]);
+    }
+
+    /**
+     * Creates an incremental cSHAKE256 instance, see cSHAKE256.
+     * @param functionName the name of the function to use
+     * @param customStr the customization string
+     * @return a sponge whose output equals cSHAKE256 of everything absorbed
+     */
+    public static Sponge cSHAKE256Sponge(byte[] functionName, byte[] customStr) {
+        return cShakeSponge(functionName, customStr, 512);
+    }
+
+    /**
+     * Creates an incremental KMACXOF256 instance, see KMACXOF256. The main input is absorbed
+     * in pieces and any number of output bytes can be squeezed afterwards.
+     * @param key is a key bit string of any length, including zero
+     * @param customString is an optional customization bit string
+     * @return a sponge whose output equals KMACXOF256 of everything absorbed
+     */
+    public static Sponge KMACXOF256Sponge(byte[] key, byte[] customString) {
+        CryptoMetrics.kmacSponge(customString);
+        Sponge sponge = KMACXOF256PrefixSponge(customString);
+        sponge.absorb(bytePad(encodeString(key), 136));
+        return sponge;
+    }
+
+    /**
+     * Streams a file into a sponge in chunks, so memory use does not depend on its size.
+     * @param sponge the sponge to absorb into, e.g. from KMACXOF256Sponge
+     * @param file the file to be absorbed
+     * @return the same sponge, ready to be squeezed
+     * @throws IOException if the file can not be read
+     */
+    public static Sponge absorbFile(Sponge sponge, Path file) throws IOException {
+        byte[] chunk = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(chunk)) != -1) {
+                sponge.absorb(chunk, 0, n);
+            }
+        }
+        return sponge;
+    }
+
+    /**
+     * Creates a KMACXOF256 instance that has absorbed the function name and customization string
+     * but not the key yet, for callers that absorb bytepad(encode_string(K), 136) themselves.
+     * @param customString is an optional customization bit string
+     * @return a sponge waiting for the encoded key
+     */
+    static Sponge KMACXOF256PrefixSponge(byte[] customString) {
+        return kmacPrefixSponge(customString, 512);
+    }
+
+    /**
+     * Creates an incremental SHAKE128 instance, see SHAKE128.
+     * @return an empty sponge whose output equals SHAKE128 of everything absorbed
+     */
+    public static Sponge SHAKE128Sponge() {
+        return new Sponge(256, (byte) 0x1f, true, new byte[0]);
+    }
+
+    /**
+     * Creates an incremental cSHAKE128 instance, see cSHAKE128.
+     * @param functionName the name of the function to use
+     * @param customStr the customization string
+     * @return a sponge whose output equals cSHAKE128 of everything absorbed
+     */
+    public static Sponge cSHAKE128Sponge(byte[] functionName, byte[] customStr) {
+        return cShakeSponge(functionName, customStr, 256);
+    }
+
+    /**
+     * Creates an incremental KMACXOF128 instance, see KMACXOF128.
+     * @param key is a key bit string of any length, including zero
+     * @param customString is an optional customization bit string
+     * @return a sponge whose output equals KMACXOF128 of everything absorbed
+     */
+    public static Sponge KMACXOF128Sponge(byte[] key, byte[] customString) {
+        CryptoMetrics.kmacSponge(customString);
+        Sponge sponge = kmacPrefixSponge(customString, 256);
+        sponge.absorb(bytePad(encodeString(key), 168));
+        return sponge;
+    }
+
+    // incremental cSHAKE with the given capacity
+    private static Sponge cShakeSponge(byte[] functionName, byte[] customStr, int cap) {
+        if (functionName.length == 0 && customStr.length == 0) return new Sponge(cap, (byte) 0x1f, true, new byte[0]);
+
+        Sponge sponge = new Sponge(cap, (byte) 0x04, false, new byte[0]);
+        sponge.absorb(bytePad(concat(encodeString(functionName), encodeString(customStr)), (1600 - cap) / 8));
+        return sponge;
+    }
 
-        byte[] newX = concat(concat(bytePad(encodeString(key),136), in), rightEncode(BigInteger.ZERO));
-        return cSHAKE256(newX, bitLength, "KMAC".getBytes(), customString);
+    // incremental KMACXOF with the given capacity, before the key
+    private static Sponge kmacPrefixSponge(byte[] customString, int cap) {
+        Sponge sponge = new Sponge(cap, (byte) 0x04, false, rightEncode(BigInteger.ZERO));
+        sponge.absorb(bytePad(concat(encodeString("KMAC".getBytes()), encodeString(customString)), (1600 - cap) / 8));
+        return sponge;
     }
 
     /************************************************************
@@ -256,7 +461,7 @@ public class KMAC {
         //TODO : everything is signed in java naturally, does this impact my base256?
 
         //Validity Condition: 0 <= x < 2^2040
-        assert 0 < x.compareTo(new BigInteger(String.valueOf(Math.pow(2, 2040))));
+        assert x.signum() >= 0 && x.bitLength() <= 2040;
 
         int n = 1;
 
@@ -296,7 +501,7 @@ public class KMAC {
         //TODO : everything is signed in java naturally, does this impact my base256?
 
         //Validity Condition: 0 <= x < 2^2040
-        assert 0 < x.compareTo(new BigInteger(String.valueOf(Math.pow(2, 2040))));
+        assert x.signum() >= 0 && x.bitLength() <= 2040;
 
         int n = 1;
 
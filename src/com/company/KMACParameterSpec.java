@@ -0,0 +1,46 @@
+package com.company;
+
+import java.security.spec.AlgorithmParameterSpec;
+
+/**
+ * Parameters of the KMACXOF256 Mac of the {@link KMACProvider}: the customization string and
+ * the output length.
+ */
+public class KMACParameterSpec implements AlgorithmParameterSpec {
+
+    /**
+     * output length used when no parameters are given
+     */
+    public static final int DEFAULT_OUTPUT_BITS = 512;
+
+    private final byte[] customString;
+
+    private final int outputBits;
+
+    /**
+     * @param customString the customization string
+     * @param outputBits the output length in bits, a positive multiple of 8
+     */
+    public KMACParameterSpec(final byte[] customString, final int outputBits) {
+        if (outputBits <= 0 || outputBits % 8 != 0) {
+            throw new IllegalArgumentException("Output length must be a positive multiple of 8 bits.");
+        }
+        this.customString = customString.clone();
+        this.outputBits = outputBits;
+    }
+
+    /**
+     * @param customString the customization string, with the default output length
+     */
+    public KMACParameterSpec(final byte[] customString) {
+        this(customString, DEFAULT_OUTPUT_BITS);
+    }
+
+    public byte[] getCustomString() {
+        return customString.clone();
+    }
+
+    public int getOutputBits() {
+        return outputBits;
+    }
+}
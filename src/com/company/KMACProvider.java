@@ -0,0 +1,310 @@
+package com.company;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.MessageDigestSpi;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.crypto.MacSpi;
+
+/**
+ * JCA provider for the Keccak functions of KMAC, so they plug into DigestInputStream,
+ * Mac-based filters and other JCA-aware code without buffering the message. It registers
+ *   MessageDigest SHAKE256                  512-bit SHAKE256
+ *   MessageDigest cSHAKE256                 the same, cSHAKE256 without function name and customization
+ *   MessageDigest cSHAKE256/CUSTOMIZATION   512-bit cSHAKE256 with an empty function name
+ *   Mac           KMACXOF256                customization and length from a KMACParameterSpec
+ *   Mac           KMACXOF256/CUSTOMIZATION  512-bit KMACXOF256 with that customization string
+ * and the same for SHAKE128, cSHAKE128 and KMACXOF128 with 256 bits of output,
+ * e.g. MessageDigest.getInstance("SHAKE256", new KMACProvider()).
+ *
+ * Every instance is backed by an incremental Sponge, so update only absorbs the new bytes.
+ * The sponge holding the key and customization string is kept and copied on reset, and clone()
+ * forks the current state, e.g. to take the digest of a prefix and keep going.
+ */
+public class KMACProvider extends Provider {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * name the provider is registered under
+     */
+    public static final String NAME = "KMAC";
+
+    private static final String CSHAKE_PREFIX = "cSHAKE256/";
+
+    private static final String KMAC_PREFIX = "KMACXOF256/";
+
+    private static final String CSHAKE128_PREFIX = "cSHAKE128/";
+
+    private static final String KMAC128_PREFIX = "KMACXOF128/";
+
+    private final Map<String, Service> customServices = new ConcurrentHashMap<>();
+
+    public KMACProvider() {
+        super(NAME, "1.0", "SHAKE, cSHAKE and KMACXOF at 128 and 256 bits (NIST FIPS 202, SP 800-185)");
+        putService(new Service(this, "MessageDigest", "SHAKE256", SHAKE256.class.getName(), null, null));
+        putService(new Service(this, "MessageDigest", "cSHAKE256", SHAKE256.class.getName(), null, null));
+        putService(new Service(this, "Mac", "KMACXOF256", KMACXOF256.class.getName(), null, null));
+        putService(new Service(this, "MessageDigest", "SHAKE128", SHAKE128.class.getName(), null, null));
+        putService(new Service(this, "MessageDigest", "cSHAKE128", SHAKE128.class.getName(), null, null));
+        putService(new Service(this, "Mac", "KMACXOF128", KMACXOF128.class.getName(), null, null));
+    }
+
+    /**
+     * Besides the registered services, resolves the cSHAKE256/CUSTOMIZATION,
+     * KMACXOF256/CUSTOMIZATION, cSHAKE128/CUSTOMIZATION and KMACXOF128/CUSTOMIZATION algorithms.
+     */
+    @Override
+    public Service getService(final String type, final String algorithm) {
+        Service service = super.getService(type, algorithm);
+        if (service != null) return service;
+        if ("MessageDigest".equals(type) && (algorithm.startsWith(CSHAKE_PREFIX) || algorithm.startsWith(CSHAKE128_PREFIX))
+                || "Mac".equals(type) && (algorithm.startsWith(KMAC_PREFIX) || algorithm.startsWith(KMAC128_PREFIX))) {
+            return customServices.computeIfAbsent(type + "." + algorithm, k -> new CustomService(type, algorithm));
+        }
+        return null;
+    }
+
+    // a service whose customization string is part of its algorithm name
+    private final class CustomService extends Service {
+
+        private final byte[] customString;
+
+        private final boolean strength128;
+
+        CustomService(final String type, final String algorithm) {
+            super(KMACProvider.this, type, algorithm, implementation(type, algorithm).getName(), null, null);
+            this.customString = algorithm.substring(algorithm.indexOf('/') + 1).getBytes(StandardCharsets.UTF_8);
+            this.strength128 = algorithm.startsWith(KMAC128_PREFIX) || algorithm.startsWith(CSHAKE128_PREFIX);
+        }
+
+        @Override
+        public Object newInstance(final Object constructorParameter) throws NoSuchAlgorithmException {
+            if ("Mac".equals(getType())) {
+                return strength128 ? new KMACXOF128(customString) : new KMACXOF256(customString);
+            }
+            return strength128 ? new CSHAKE128(customString) : new CSHAKE256(customString);
+        }
+    }
+
+    // the SPI class behind a customized algorithm name
+    private static Class<?> implementation(final String type, final String algorithm) {
+        boolean strength128 = algorithm.startsWith(KMAC128_PREFIX) || algorithm.startsWith(CSHAKE128_PREFIX);
+        if ("Mac".equals(type)) return strength128 ? KMACXOF128.class : KMACXOF256.class;
+        return strength128 ? CSHAKE128.class : CSHAKE256.class;
+    }
+
+    /************************************************************
+     *                     MessageDigest SPIs                   *
+     ************************************************************/
+
+    /**
+     * SHAKE256 with 512 bits of output.
+     */
+    public static class SHAKE256 extends MessageDigestSpi implements Cloneable {
+
+        private final Sponge initial;
+
+        private final int digestLength;
+
+        private Sponge sponge;
+
+        public SHAKE256() {
+            this(KMAC.SHAKE256Sponge());
+        }
+
+        SHAKE256(final Sponge initial) {
+            this(initial, 64);
+        }
+
+        SHAKE256(final Sponge initial, final int digestLength) {
+            this.initial = initial;
+            this.digestLength = digestLength;
+            this.sponge = initial.copy();
+        }
+
+        @Override
+        protected int engineGetDigestLength() {
+            return digestLength;
+        }
+
+        @Override
+        protected void engineUpdate(final byte input) {
+            sponge.absorb(new byte[] {input}, 0, 1);
+        }
+
+        @Override
+        protected void engineUpdate(final byte[] input, final int offset, final int len) {
+            sponge.absorb(input, offset, len);
+        }
+
+        @Override
+        protected byte[] engineDigest() {
+            byte[] digest = sponge.squeeze(digestLength);
+            engineReset();
+            return digest;
+        }
+
+        @Override
+        protected void engineReset() {
+            sponge = initial.copy();
+        }
+
+        @Override
+        public Object clone() throws CloneNotSupportedException {
+            SHAKE256 clone = (SHAKE256) super.clone();
+            clone.sponge = sponge.copy();
+            return clone;
+        }
+    }
+
+    /**
+     * cSHAKE256 with an empty function name, a fixed customization string and 512 bits of output.
+     */
+    public static class CSHAKE256 extends SHAKE256 {
+
+        public CSHAKE256(final byte[] customString) {
+            super(KMAC.cSHAKE256Sponge(new byte[0], customString));
+        }
+    }
+
+    /**
+     * SHAKE128 with 256 bits of output.
+     */
+    public static class SHAKE128 extends SHAKE256 {
+
+        public SHAKE128() {
+            super(KMAC.SHAKE128Sponge(), 32);
+        }
+    }
+
+    /**
+     * cSHAKE128 with an empty function name, a fixed customization string and 256 bits of output.
+     */
+    public static class CSHAKE128 extends SHAKE256 {
+
+        public CSHAKE128(final byte[] customString) {
+            super(KMAC.cSHAKE128Sponge(new byte[0], customString), 32);
+        }
+    }
+
+    /************************************************************
+     *                          Mac SPIs                        *
+     ************************************************************/
+
+    /**
+     * KMACXOF256 keyed with the encoded key given to init.
+     */
+    public static class KMACXOF256 extends MacSpi implements Cloneable {
+
+        private final byte[] defaultCustomString;
+
+        private final int defaultOutputBytes;
+
+        private byte[] customString;
+
+        private int outputBytes;
+
+        private Sponge initial;
+
+        private Sponge sponge;
+
+        public KMACXOF256() {
+            this(new byte[0]);
+        }
+
+        public KMACXOF256(final byte[] customString) {
+            this(customString, KMACParameterSpec.DEFAULT_OUTPUT_BITS / 8);
+        }
+
+        KMACXOF256(final byte[] customString, final int outputBytes) {
+            this.defaultCustomString = customString;
+            this.defaultOutputBytes = outputBytes;
+            this.customString = customString;
+            this.outputBytes = outputBytes;
+        }
+
+        // the sponge keyed by init
+        Sponge newSponge(final byte[] key, final byte[] customString) {
+            return KMAC.KMACXOF256Sponge(key, customString);
+        }
+
+        @Override
+        protected int engineGetMacLength() {
+            return outputBytes;
+        }
+
+        @Override
+        protected void engineInit(final Key key, final AlgorithmParameterSpec params)
+                throws InvalidKeyException, InvalidAlgorithmParameterException {
+            if (key == null || key.getEncoded() == null) throw new InvalidKeyException("Key must have an encoding.");
+            if (params instanceof KMACParameterSpec) {
+                customString = ((KMACParameterSpec) params).getCustomString();
+                outputBytes = ((KMACParameterSpec) params).getOutputBits() / 8;
+            } else if (params == null) {
+                // an init without parameters does not inherit those of an earlier init
+                customString = defaultCustomString;
+                outputBytes = defaultOutputBytes;
+            } else {
+                throw new InvalidAlgorithmParameterException("Expected a KMACParameterSpec.");
+            }
+            initial = newSponge(key.getEncoded(), customString);
+            sponge = initial.copy();
+        }
+
+        @Override
+        protected void engineUpdate(final byte input) {
+            sponge.absorb(new byte[] {input}, 0, 1);
+        }
+
+        @Override
+        protected void engineUpdate(final byte[] input, final int offset, final int len) {
+            sponge.absorb(input, offset, len);
+        }
+
+        @Override
+        protected byte[] engineDoFinal() {
+            byte[] tag = sponge.squeeze(outputBytes);
+            engineReset();
+            return tag;
+        }
+
+        @Override
+        protected void engineReset() {
+            if (initial != null) sponge = initial.copy();
+        }
+
+        @Override
+        public Object clone() throws CloneNotSupportedException {
+            KMACXOF256 clone = (KMACXOF256) super.clone();
+            if (sponge != null) clone.sponge = sponge.copy();
+            return clone;
+        }
+    }
+
+    /**
+     * KMACXOF128 keyed with the encoded key given to init, 256 bits of output unless a
+     * KMACParameterSpec says otherwise.
+     */
+    public static class KMACXOF128 extends KMACXOF256 {
+
+        public KMACXOF128() {
+            this(new byte[0]);
+        }
+
+        public KMACXOF128(final byte[] customString) {
+            super(customString, 32);
+        }
+
+        @Override
+        Sponge newSponge(final byte[] key, final byte[] customString) {
+            return KMAC.KMACXOF128Sponge(key, customString);
+        }
+    }
+}
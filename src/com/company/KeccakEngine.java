@@ -0,0 +1,18 @@
+package com.company;
+
+/**
+ * An implementation of the Keccak-f[1600] permutation. KeccakEngines picks the one that runs.
+ */
+public interface KeccakEngine {
+
+    /**
+     * @return the name the engine is selected by
+     */
+    String name();
+
+    /**
+     * Applies the 24 rounds of Keccak-f[1600] to a state in place.
+     * @param state the 25 lanes, lane (x, y) at index x + 5y
+     */
+    void permute(long[] state);
+}
@@ -0,0 +1,517 @@
+package com.company;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The Keccak-f[1600] engines behind KMAC.keccak and every Sponge. The engine is picked once per
+ * process:
+ *   (unset)                     the unrolled engine, the fastest on the JVMs measured so far
+ *   -Dkeccak.engine=NAME        use that engine, one of reference, compact, unrolled,
+ *                               complementing or vector
+ *   -Dkeccak.engine=auto        time every available engine and take the fastest; this costs
+ *                               a few hundred milliseconds before the first permutation, so
+ *                               it only pays off in long-running processes
+ * Every candidate is first checked against the known answers of the permutation (the
+ * intermediate values of FIPS 202 for the all-zero state) and against the reference engine on
+ * random states; an engine that fails is never used. The vector engine needs
+ * --add-modules jdk.incubator.vector and is left out when the module is missing.
+ */
+public final class KeccakEngines {
+
+    /**
+     * system property naming the engine, or auto
+     */
+    public static final String ENGINE_PROPERTY = "keccak.engine";
+
+    /**
+     * engine used when the property is not set
+     */
+    public static final String DEFAULT_ENGINE = "unrolled";
+
+    private static final String VECTOR_ENGINE = "com.company.KeccakVectorEngine";
+
+    private static final int CALIBRATION_PERMUTATIONS = 5000;
+
+    private static final int CALIBRATION_RUNS = 3;
+
+    /**
+     * Keccak-f[1600] of the all-zero state, and of that state again
+     */
+    private static final long[][] KNOWN_ANSWERS = {
+            {
+                    0xF1258F7940E1DDE7L, 0x84D5CCF933C0478AL, 0xD598261EA65AA9EEL, 0xBD1547306F80494DL,
+                    0x8B284E056253D057L, 0xFF97A42D7F8E6FD4L, 0x90FEE5A0A44647C4L, 0x8C5BDA0CD6192E76L,
+                    0xAD30A6F71B19059CL, 0x30935AB7D08FFC64L, 0xEB5AA93F2317D635L, 0xA9A6E6260D712103L,
+                    0x81A57C16DBCF555FL, 0x43B831CD0347C826L, 0x01F22F1A11A5569FL, 0x05E5635A21D9AE61L,
+                    0x64BEFEF28CC970F2L, 0x613670957BC46611L, 0xB87C5A554FD00ECBL, 0x8C3EE88A1CCF32C8L,
+                    0x940C7922AE3A2614L, 0x1841F924A2C509E4L, 0x16F53526E70465C2L, 0x75F644E97F30A13BL,
+                    0xEAF1FF7B5CECA249L
+            },
+            {
+                    0x2D5C954DF96ECB3CL, 0x6A332CD07057B56DL, 0x093D8D1270D76B6CL, 0x8A20D9B25569D094L,
+                    0x4F9C4F99E5E7F156L, 0xF957B9A2DA65FB38L, 0x85773DAE1275AF0DL, 0xFAF4F247C3D810F7L,
+                    0x1F1B9EE6F79A8759L, 0xE4FECC0FEE98B425L, 0x68CE61B6B9CE68A1L, 0xDEEA66C4BA8F974FL,
+                    0x33C43D836EAFB1F5L, 0xE00654042719DBD9L, 0x7CF8A9F009831265L, 0xFD5449A6BF174743L,
+                    0x97DDAD33D8994B40L, 0x48EAD5FC5D0BE774L, 0xE3B8C8EE55B7B03CL, 0x91A0226E649E42E9L,
+                    0x900E3129E7BADD7BL, 0x202A9EC5FAA3CCE8L, 0x5B3402464E1C3DB6L, 0x609F4E62A44C1059L,
+                    0x20D06CD26A8FBF5CL
+            }
+    };
+
+    private static final long[] RC = KMAC.keccakfRndc;
+
+    private KeccakEngines() {
+    }
+
+    // the engine picked when the first permutation runs
+    private static final class Selected {
+        static final KeccakEngine ENGINE = select(System.getProperty(ENGINE_PROPERTY));
+    }
+
+    /************************************************************
+     *                        Selection                         *
+     ************************************************************/
+
+    /**
+     * @return the engine every permutation of this process runs on
+     */
+    public static KeccakEngine selected() {
+        return Selected.ENGINE;
+    }
+
+    /**
+     * @return the engines this JVM can run, whether or not they pass the self test
+     */
+    public static List<KeccakEngine> available() {
+        List<KeccakEngine> engines = new ArrayList<>(List.of(new Reference(), new Compact(), new Unrolled(),
+                new LaneComplementing()));
+        try {
+            engines.add((KeccakEngine) Class.forName(VECTOR_ENGINE).getDeclaredConstructor().newInstance());
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // jdk.incubator.vector is not in the module graph
+        }
+        return Collections.unmodifiableList(engines);
+    }
+
+    /**
+     * @param name the name of an engine
+     * @return the available engine of that name
+     * @throws IllegalArgumentException if there is no such engine on this JVM
+     */
+    public static KeccakEngine byName(final String name) {
+        for (KeccakEngine engine : available()) {
+            if (engine.name().equals(name)) return engine;
+        }
+        throw new IllegalArgumentException("Unknown or unavailable Keccak engine " + name);
+    }
+
+    /**
+     * Checks an engine against the known answers and against the reference engine on random states.
+     * @param engine the engine
+     * @return whether every check passed
+     */
+    public static boolean selfTest(final KeccakEngine engine) {
+        long[] state = new long[25];
+        for (long[] expected : KNOWN_ANSWERS) {
+            engine.permute(state);
+            if (!Arrays.equals(state, expected)) return false;
+        }
+        Random random = new Random(487);
+        for (int i = 0; i < 16; i++) {
+            for (int j = 0; j < 25; j++) {
+                state[j] = random.nextLong();
+            }
+            long[] expected = KMAC.keccakRounds(state.clone(), 1600, 24);
+            engine.permute(state);
+            if (!Arrays.equals(state, expected)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Times an engine after a warmup.
+     * @param engine the engine
+     * @return the best observed time of one permutation in nanoseconds
+     */
+    public static long calibrate(final KeccakEngine engine) {
+        long[] state = new long[25];
+        state[0] = 487;
+        for (int i = 0; i < 2 * CALIBRATION_PERMUTATIONS; i++) {
+            engine.permute(state);
+        }
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < CALIBRATION_RUNS; run++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < CALIBRATION_PERMUTATIONS; i++) {
+                engine.permute(state);
+            }
+            best = Math.min(best, (System.nanoTime() - start) / CALIBRATION_PERMUTATIONS);
+        }
+        // keep the result alive so the loop is not eliminated
+        if (state[0] == 0 && state[1] == 0) best++;
+        return best;
+    }
+
+    // the engine named by the property, the default one, or with auto the fastest one that
+    // passes the self test
+    private static KeccakEngine select(final String name) {
+        if (name == null) {
+            KeccakEngine engine = byName(DEFAULT_ENGINE);
+            return selfTest(engine) ? engine : new Reference();
+        }
+        if (!"auto".equals(name)) {
+            KeccakEngine engine = byName(name);
+            if (!selfTest(engine)) throw new IllegalStateException("Keccak engine " + name + " failed its self test");
+            return engine;
+        }
+        KeccakEngine fastest = null;
+        long fastestNanos = Long.MAX_VALUE;
+        for (KeccakEngine engine : available()) {
+            if (!selfTest(engine)) continue;
+            long nanos = calibrate(engine);
+            if (nanos < fastestNanos) {
+                fastest = engine;
+                fastestNanos = nanos;
+            }
+        }
+        if (fastest == null) throw new IllegalStateException("No Keccak engine passed its self test");
+        return fastest;
+    }
+
+    /************************************************************
+     *                         Engines                          *
+     ************************************************************/
+
+    /**
+     * The round functions of KMAC as they are specified, every step producing a new state.
+     */
+    static final class Reference implements KeccakEngine {
+        @Override
+        public String name() {
+            return "reference";
+        }
+
+        @Override
+        public void permute(final long[] st) {
+            System.arraycopy(KMAC.keccakRounds(st, 1600, 24), 0, st, 0, 25);
+        }
+    }
+
+    /**
+     * In place with the lanes of a row held in locals, as in tiny_sha3.
+     * Adapted from https://github.com/mjosaarinen/tiny_sha3/blob/master/sha3.c
+     */
+    static final class Compact implements KeccakEngine {
+        @Override
+        public String name() {
+            return "compact";
+        }
+
+        @Override
+        public void permute(final long[] st) {
+            for (int round = 0; round < 24; round++) {
+                // theta
+                long c0 = st[0] ^ st[5] ^ st[10] ^ st[15] ^ st[20];
+                long c1 = st[1] ^ st[6] ^ st[11] ^ st[16] ^ st[21];
+                long c2 = st[2] ^ st[7] ^ st[12] ^ st[17] ^ st[22];
+                long c3 = st[3] ^ st[8] ^ st[13] ^ st[18] ^ st[23];
+                long c4 = st[4] ^ st[9] ^ st[14] ^ st[19] ^ st[24];
+                long d0 = c4 ^ Long.rotateLeft(c1, 1);
+                long d1 = c0 ^ Long.rotateLeft(c2, 1);
+                long d2 = c1 ^ Long.rotateLeft(c3, 1);
+                long d3 = c2 ^ Long.rotateLeft(c4, 1);
+                long d4 = c3 ^ Long.rotateLeft(c0, 1);
+                for (int j = 0; j < 25; j += 5) {
+                    st[j] ^= d0;
+                    st[j + 1] ^= d1;
+                    st[j + 2] ^= d2;
+                    st[j + 3] ^= d3;
+                    st[j + 4] ^= d4;
+                }
+
+                // rho and pi
+                long t = st[1];
+                for (int i = 0; i < 24; i++) {
+                    int j = KMAC.keccakfPilane[i];
+                    long temp = st[j];
+                    st[j] = Long.rotateLeft(t, KMAC.keccakfRotc[i]);
+                    t = temp;
+                }
+
+                // chi
+                for (int j = 0; j < 25; j += 5) {
+                    long a0 = st[j], a1 = st[j + 1], a2 = st[j + 2], a3 = st[j + 3], a4 = st[j + 4];
+                    st[j] = a0 ^ (~a1 & a2);
+                    st[j + 1] = a1 ^ (~a2 & a3);
+                    st[j + 2] = a2 ^ (~a3 & a4);
+                    st[j + 3] = a3 ^ (~a4 & a0);
+                    st[j + 4] = a4 ^ (~a0 & a1);
+                }
+
+                // iota
+                st[0] ^= RC[round];
+            }
+        }
+    }
+
+    /**
+     * The whole state in 25 locals and every step of a round written out, so the JIT keeps
+     * the lanes in registers and needs no index arithmetic.
+     */
+    static final class Unrolled implements KeccakEngine {
+        @Override
+        public String name() {
+            return "unrolled";
+        }
+
+        @Override
+        public void permute(final long[] st) {
+            long a0 = st[0];
+            long a1 = st[1];
+            long a2 = st[2];
+            long a3 = st[3];
+            long a4 = st[4];
+            long a5 = st[5];
+            long a6 = st[6];
+            long a7 = st[7];
+            long a8 = st[8];
+            long a9 = st[9];
+            long a10 = st[10];
+            long a11 = st[11];
+            long a12 = st[12];
+            long a13 = st[13];
+            long a14 = st[14];
+            long a15 = st[15];
+            long a16 = st[16];
+            long a17 = st[17];
+            long a18 = st[18];
+            long a19 = st[19];
+            long a20 = st[20];
+            long a21 = st[21];
+            long a22 = st[22];
+            long a23 = st[23];
+            long a24 = st[24];
+            for (int round = 0; round < 24; round++) {
+                long c0 = a0 ^ a5 ^ a10 ^ a15 ^ a20;
+                long c1 = a1 ^ a6 ^ a11 ^ a16 ^ a21;
+                long c2 = a2 ^ a7 ^ a12 ^ a17 ^ a22;
+                long c3 = a3 ^ a8 ^ a13 ^ a18 ^ a23;
+                long c4 = a4 ^ a9 ^ a14 ^ a19 ^ a24;
+                long d0 = c4 ^ Long.rotateLeft(c1, 1);
+                long d1 = c0 ^ Long.rotateLeft(c2, 1);
+                long d2 = c1 ^ Long.rotateLeft(c3, 1);
+                long d3 = c2 ^ Long.rotateLeft(c4, 1);
+                long d4 = c3 ^ Long.rotateLeft(c0, 1);
+                long b0 = a0 ^ d0;
+                long b16 = Long.rotateLeft(a5 ^ d0, 36);
+                long b7 = Long.rotateLeft(a10 ^ d0, 3);
+                long b23 = Long.rotateLeft(a15 ^ d0, 41);
+                long b14 = Long.rotateLeft(a20 ^ d0, 18);
+                long b10 = Long.rotateLeft(a1 ^ d1, 1);
+                long b1 = Long.rotateLeft(a6 ^ d1, 44);
+                long b17 = Long.rotateLeft(a11 ^ d1, 10);
+                long b8 = Long.rotateLeft(a16 ^ d1, 45);
+                long b24 = Long.rotateLeft(a21 ^ d1, 2);
+                long b20 = Long.rotateLeft(a2 ^ d2, 62);
+                long b11 = Long.rotateLeft(a7 ^ d2, 6);
+                long b2 = Long.rotateLeft(a12 ^ d2, 43);
+                long b18 = Long.rotateLeft(a17 ^ d2, 15);
+                long b9 = Long.rotateLeft(a22 ^ d2, 61);
+                long b5 = Long.rotateLeft(a3 ^ d3, 28);
+                long b21 = Long.rotateLeft(a8 ^ d3, 55);
+                long b12 = Long.rotateLeft(a13 ^ d3, 25);
+                long b3 = Long.rotateLeft(a18 ^ d3, 21);
+                long b19 = Long.rotateLeft(a23 ^ d3, 56);
+                long b15 = Long.rotateLeft(a4 ^ d4, 27);
+                long b6 = Long.rotateLeft(a9 ^ d4, 20);
+                long b22 = Long.rotateLeft(a14 ^ d4, 39);
+                long b13 = Long.rotateLeft(a19 ^ d4, 8);
+                long b4 = Long.rotateLeft(a24 ^ d4, 14);
+                a0 = b0 ^ (~b1 & b2);
+                a1 = b1 ^ (~b2 & b3);
+                a2 = b2 ^ (~b3 & b4);
+                a3 = b3 ^ (~b4 & b0);
+                a4 = b4 ^ (~b0 & b1);
+                a5 = b5 ^ (~b6 & b7);
+                a6 = b6 ^ (~b7 & b8);
+                a7 = b7 ^ (~b8 & b9);
+                a8 = b8 ^ (~b9 & b5);
+                a9 = b9 ^ (~b5 & b6);
+                a10 = b10 ^ (~b11 & b12);
+                a11 = b11 ^ (~b12 & b13);
+                a12 = b12 ^ (~b13 & b14);
+                a13 = b13 ^ (~b14 & b10);
+                a14 = b14 ^ (~b10 & b11);
+                a15 = b15 ^ (~b16 & b17);
+                a16 = b16 ^ (~b17 & b18);
+                a17 = b17 ^ (~b18 & b19);
+                a18 = b18 ^ (~b19 & b15);
+                a19 = b19 ^ (~b15 & b16);
+                a20 = b20 ^ (~b21 & b22);
+                a21 = b21 ^ (~b22 & b23);
+                a22 = b22 ^ (~b23 & b24);
+                a23 = b23 ^ (~b24 & b20);
+                a24 = b24 ^ (~b20 & b21);
+                a0 ^= RC[round];
+            }
+            st[0] = a0;
+            st[1] = a1;
+            st[2] = a2;
+            st[3] = a3;
+            st[4] = a4;
+            st[5] = a5;
+            st[6] = a6;
+            st[7] = a7;
+            st[8] = a8;
+            st[9] = a9;
+            st[10] = a10;
+            st[11] = a11;
+            st[12] = a12;
+            st[13] = a13;
+            st[14] = a14;
+            st[15] = a15;
+            st[16] = a16;
+            st[17] = a17;
+            st[18] = a18;
+            st[19] = a19;
+            st[20] = a20;
+            st[21] = a21;
+            st[22] = a22;
+            st[23] = a23;
+            st[24] = a24;
+        }
+    }
+
+    /**
+     * The unrolled engine with the lane complementing transform of the Keccak team: lanes 1,
+     * 2, 8, 12, 17 and 20 are kept complemented during the rounds, which turns 17 of the 25
+     * NOTs of chi into ORs for free.
+     */
+    static final class LaneComplementing implements KeccakEngine {
+        @Override
+        public String name() {
+            return "complementing";
+        }
+
+        @Override
+        public void permute(final long[] st) {
+            long a0 = st[0];
+            long a1 = ~st[1];
+            long a2 = ~st[2];
+            long a3 = st[3];
+            long a4 = st[4];
+            long a5 = st[5];
+            long a6 = st[6];
+            long a7 = st[7];
+            long a8 = ~st[8];
+            long a9 = st[9];
+            long a10 = st[10];
+            long a11 = st[11];
+            long a12 = ~st[12];
+            long a13 = st[13];
+            long a14 = st[14];
+            long a15 = st[15];
+            long a16 = st[16];
+            long a17 = ~st[17];
+            long a18 = st[18];
+            long a19 = st[19];
+            long a20 = ~st[20];
+            long a21 = st[21];
+            long a22 = st[22];
+            long a23 = st[23];
+            long a24 = st[24];
+            for (int round = 0; round < 24; round++) {
+                long c0 = a0 ^ a5 ^ a10 ^ a15 ^ a20;
+                long c1 = a1 ^ a6 ^ a11 ^ a16 ^ a21;
+                long c2 = a2 ^ a7 ^ a12 ^ a17 ^ a22;
+                long c3 = a3 ^ a8 ^ a13 ^ a18 ^ a23;
+                long c4 = a4 ^ a9 ^ a14 ^ a19 ^ a24;
+                long d0 = c4 ^ Long.rotateLeft(c1, 1);
+                long d1 = c0 ^ Long.rotateLeft(c2, 1);
+                long d2 = c1 ^ Long.rotateLeft(c3, 1);
+                long d3 = c2 ^ Long.rotateLeft(c4, 1);
+                long d4 = c3 ^ Long.rotateLeft(c0, 1);
+                long b0 = a0 ^ d0;
+                long b16 = Long.rotateLeft(a5 ^ d0, 36);
+                long b7 = Long.rotateLeft(a10 ^ d0, 3);
+                long b23 = Long.rotateLeft(a15 ^ d0, 41);
+                long b14 = Long.rotateLeft(a20 ^ d0, 18);
+                long b10 = Long.rotateLeft(a1 ^ d1, 1);
+                long b1 = Long.rotateLeft(a6 ^ d1, 44);
+                long b17 = Long.rotateLeft(a11 ^ d1, 10);
+                long b8 = Long.rotateLeft(a16 ^ d1, 45);
+                long b24 = Long.rotateLeft(a21 ^ d1, 2);
+                long b20 = Long.rotateLeft(a2 ^ d2, 62);
+                long b11 = Long.rotateLeft(a7 ^ d2, 6);
+                long b2 = Long.rotateLeft(a12 ^ d2, 43);
+                long b18 = Long.rotateLeft(a17 ^ d2, 15);
+                long b9 = Long.rotateLeft(a22 ^ d2, 61);
+                long b5 = Long.rotateLeft(a3 ^ d3, 28);
+                long b21 = Long.rotateLeft(a8 ^ d3, 55);
+                long b12 = Long.rotateLeft(a13 ^ d3, 25);
+                long b3 = Long.rotateLeft(a18 ^ d3, 21);
+                long b19 = Long.rotateLeft(a23 ^ d3, 56);
+                long b15 = Long.rotateLeft(a4 ^ d4, 27);
+                long b6 = Long.rotateLeft(a9 ^ d4, 20);
+                long b22 = Long.rotateLeft(a14 ^ d4, 39);
+                long b13 = Long.rotateLeft(a19 ^ d4, 8);
+                long b4 = Long.rotateLeft(a24 ^ d4, 14);
+                a0 = b0 ^ (b1 | b2);
+                a1 = b1 ^ (~b2 | b3);
+                a2 = b2 ^ (b3 & b4);
+                a3 = b3 ^ (b4 | b0);
+                a4 = b4 ^ (b0 & b1);
+                a5 = b5 ^ (b6 | b7);
+                a6 = b6 ^ (b7 & b8);
+                a7 = b7 ^ (b8 | ~b9);
+                a8 = b8 ^ (b9 | b5);
+                a9 = b9 ^ (b5 & b6);
+                a10 = b10 ^ (b11 | b12);
+                a11 = b11 ^ (b12 & b13);
+                a12 = b12 ^ (~b13 & b14);
+                a13 = ~b13 ^ (b14 | b10);
+                a14 = b14 ^ (b10 & b11);
+                a15 = b15 ^ (b16 & b17);
+                a16 = b16 ^ (b17 | b18);
+                a17 = b17 ^ (~b18 | b19);
+                a18 = ~b18 ^ (b19 & b15);
+                a19 = b19 ^ (b15 | b16);
+                a20 = b20 ^ (~b21 & b22);
+                a21 = ~b21 ^ (b22 | b23);
+                a22 = b22 ^ (b23 & b24);
+                a23 = b23 ^ (b24 | b20);
+                a24 = b24 ^ (b20 & b21);
+                a0 ^= RC[round];
+            }
+            st[0] = a0;
+            st[1] = ~a1;
+            st[2] = ~a2;
+            st[3] = a3;
+            st[4] = a4;
+            st[5] = a5;
+            st[6] = a6;
+            st[7] = a7;
+            st[8] = ~a8;
+            st[9] = a9;
+            st[10] = a10;
+            st[11] = a11;
+            st[12] = ~a12;
+            st[13] = a13;
+            st[14] = a14;
+            st[15] = a15;
+            st[16] = a16;
+            st[17] = ~a17;
+            st[18] = a18;
+            st[19] = a19;
+            st[20] = ~a20;
+            st[21] = a21;
+            st[22] = a22;
+            st[23] = a23;
+            st[24] = a24;
+        }
+    }
+}
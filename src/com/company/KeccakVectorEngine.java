@@ -0,0 +1,70 @@
+package com.company;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Keccak-f[1600] on the Vector API with a row of five lanes per 512-bit vector, so theta and
+ * chi work on whole rows. Rho and pi move lanes between rows and stay scalar.
+ *
+ * Only loaded through reflection by KeccakEngines, since the class needs
+ * --add-modules jdk.incubator.vector at run time.
+ */
+final class KeccakVectorEngine implements KeccakEngine {
+
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_512;
+
+    private static final VectorMask<Long> ROW = SPECIES.indexInRange(0, 5);
+
+    // lane x takes lane x - 1 and lane x + 1 of its row
+    private static final VectorShuffle<Long> PREVIOUS = VectorShuffle.fromValues(SPECIES, 4, 0, 1, 2, 3, 5, 6, 7);
+
+    private static final VectorShuffle<Long> NEXT = VectorShuffle.fromValues(SPECIES, 1, 2, 3, 4, 0, 5, 6, 7);
+
+    private static final VectorShuffle<Long> NEXT_BUT_ONE = VectorShuffle.fromValues(SPECIES, 2, 3, 4, 0, 1, 5, 6, 7);
+
+    @Override
+    public String name() {
+        return "vector";
+    }
+
+    @Override
+    public void permute(final long[] st) {
+        LongVector[] rows = new LongVector[5];
+        for (int round = 0; round < 24; round++) {
+            // theta
+            LongVector c = LongVector.zero(SPECIES);
+            for (int y = 0; y < 5; y++) {
+                rows[y] = LongVector.fromArray(SPECIES, st, 5 * y, ROW);
+                c = c.lanewise(VectorOperators.XOR, rows[y]);
+            }
+            LongVector d = c.rearrange(PREVIOUS)
+                    .lanewise(VectorOperators.XOR, c.rearrange(NEXT).lanewise(VectorOperators.ROL, 1));
+            for (int y = 0; y < 5; y++) {
+                rows[y].lanewise(VectorOperators.XOR, d).intoArray(st, 5 * y, ROW);
+            }
+
+            // rho and pi
+            long t = st[1];
+            for (int i = 0; i < 24; i++) {
+                int j = KMAC.keccakfPilane[i];
+                long temp = st[j];
+                st[j] = Long.rotateLeft(t, KMAC.keccakfRotc[i]);
+                t = temp;
+            }
+
+            // chi
+            for (int y = 0; y < 5; y++) {
+                LongVector a = LongVector.fromArray(SPECIES, st, 5 * y, ROW);
+                a.lanewise(VectorOperators.XOR, a.rearrange(NEXT).not().and(a.rearrange(NEXT_BUT_ONE)))
+                        .intoArray(st, 5 * y, ROW);
+            }
+
+            // iota
+            st[0] ^= KMAC.keccakfRndc[round];
+        }
+    }
+}
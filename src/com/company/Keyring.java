@@ -0,0 +1,202 @@
+package com.company;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static com.company.KMAC.*;
+
+/**
+ * A set of named recipient public keys. The window table of every key that is used is kept in
+ * a size-bounded LRU cache, so repeated encryptions and verifications against a known key skip
+ * the precomputation and only pay for the shared doublings.
+ */
+public class Keyring {
+
+    /**
+     * default number of window tables kept in the cache
+     */
+    public static final int DEFAULT_CACHE_SIZE = 256;
+
+    private final Map<String, Point> keys = new HashMap<>();
+
+    private final Map<String, BigInteger[][]> tables;
+
+    private long hits;
+
+    private long misses;
+
+    /**
+     * Creates an empty keyring.
+     * @param cacheSize the maximum number of window tables kept in memory
+     */
+    public Keyring(final int cacheSize) {
+        if (cacheSize < 1) throw new IllegalArgumentException("Cache size must be positive.");
+        tables = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, BigInteger[][]> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /************************************************************
+     *                         Loading                          *
+     ************************************************************/
+
+    /**
+     * Loads every public key file (as written by the key pair service) in a directory.
+     * A key is named after its file without the extension.
+     * @param directory the directory holding the public key files
+     * @param cacheSize the maximum number of window tables kept in memory
+     * @return the loaded keyring
+     * @throws IOException if the directory cannot be read
+     */
+    public static Keyring fromDirectory(final File directory, final int cacheSize) throws IOException {
+        File[] files = directory.listFiles(File::isFile);
+        if (files == null) throw new IOException("Not a directory: " + directory);
+        Keyring keyring = new Keyring(cacheSize);
+        for (File f : files) {
+            String name = f.getName();
+            int dot = name.lastIndexOf('.');
+            keyring.add(dot > 0 ? name.substring(0, dot) : name, Main.readPublicKey(f));
+        }
+        return keyring;
+    }
+
+    /**
+     * Loads an indexed key file where every non blank line holds a name followed by the hex
+     * encoding of the compressed public key.
+     * @param indexFile the indexed key file
+     * @param cacheSize the maximum number of window tables kept in memory
+     * @return the loaded keyring
+     * @throws IOException if the file cannot be read
+     */
+    public static Keyring fromIndexFile(final File indexFile, final int cacheSize) throws IOException {
+        Keyring keyring = new Keyring(cacheSize);
+        for (String line : Files.readAllLines(indexFile.toPath())) {
+            line = line.trim();
+            if (line.isEmpty()) continue;
+            int split = line.indexOf(' ');
+            if (split < 0) throw new IOException("Malformed keyring line: " + line);
+            keyring.add(line.substring(0, split), ECArithmetic.decode(hexStringToBytes(line.substring(split + 1))));
+        }
+        return keyring;
+    }
+
+    /**
+     * Loads a keyring from either a directory of key files or a single indexed key file.
+     * @param source the directory or indexed key file
+     * @param cacheSize the maximum number of window tables kept in memory
+     * @return the loaded keyring
+     * @throws IOException if the source cannot be read
+     */
+    public static Keyring load(final File source, final int cacheSize) throws IOException {
+        return source.isDirectory() ? fromDirectory(source, cacheSize) : fromIndexFile(source, cacheSize);
+    }
+
+    /************************************************************
+     *                        Operations                        *
+     ************************************************************/
+
+    /**
+     * Adds (or replaces) a public key.
+     * @param name the name of the key
+     * @param V the public key
+     */
+    public synchronized void add(final String name, final Point V) {
+        keys.put(name, V);
+        tables.remove(name);
+    }
+
+    /**
+     * Adds a public key unless one with that name is already on the keyring or the keyring
+     * is full, as one atomic step.
+     * @param name the name of the key
+     * @param V the public key
+     * @param maxKeys the most keys the keyring may hold
+     * @return whether a key with that name is on the keyring afterwards
+     */
+    public synchronized boolean putIfAbsent(final String name, final Point V, final int maxKeys) {
+        if (keys.containsKey(name)) return true;
+        if (keys.size() >= maxKeys) return false;
+        keys.put(name, V);
+        return true;
+    }
+
+    /**
+     * @param name the name of the key
+     * @return whether a key with that name is on the keyring
+     */
+    public synchronized boolean contains(final String name) {
+        return keys.containsKey(name);
+    }
+
+    /**
+     * @param name the name of the key
+     * @return the public key with that name
+     * @throws IllegalArgumentException if there is no such key
+     */
+    public synchronized Point get(final String name) {
+        Point V = keys.get(name);
+        if (V == null) throw new IllegalArgumentException("Unknown key: " + name);
+        return V;
+    }
+
+    /**
+     * Returns the window table of a key, computing and caching it on a miss.
+     * @param name the name of the key
+     * @return the window table of the key (see ECArithmetic.windowTable)
+     */
+    public synchronized BigInteger[][] table(final String name) {
+        BigInteger[][] table = tables.get(name);
+        if (table == null) {
+            misses++;
+            table = ECArithmetic.windowTable(get(name));
+            tables.put(name, table);
+        } else {
+            hits++;
+        }
+        return table;
+    }
+
+    /**
+     * Performs scalar multiplication of a key using its cached window table.
+     * @param name the name of the key
+     * @param s the scalar
+     * @return the scaled point s*V
+     */
+    public Point exponentiation(final String name, final BigInteger s) {
+        BigInteger[][] table = table(name);
+        return ECArithmetic.toAffine(ECArithmetic.multiScalar(new BigInteger[][][] {table}, new BigInteger[] {s}));
+    }
+
+    /************************************************************
+     *                         Getters                          *
+     ************************************************************/
+
+    public synchronized Set<String> names() {
+        return Set.copyOf(keys.keySet());
+    }
+
+    public synchronized int size() {
+        return keys.size();
+    }
+
+    public synchronized int cachedTables() {
+        return tables.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -2,11 +2,18 @@ package com.company;
 
 import java.io.*;
 import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Scanner;
 
 import static com.company.KMAC.*;
@@ -23,13 +30,30 @@ import static com.company.ECArithmetic.*;
 public class Main {
 
     /**
-     * secure random field variable
+     * the service behind the static helper methods, shared since it holds no mutable state
      */
-    private static SecureRandom z = new SecureRandom();
+    private static final CryptoService SERVICE = new CryptoService();
 
-    private static Point G = new Point(new BigInteger("8"), new BigInteger("563400200929088152613609629378641385410102682117258566404750214022059686929583319585040850282322731241505930835997382613319689400286258"));
+    /**
+     * marker of a signature made in prehash mode, the third line of a signature file
+     */
+    static final String PREHASH_MARKER = "PH";
+
+    /**
+     * cryptogram of the last encryption of this session
+     */
+    private byte[] prevEncrypt;
+
+    /**
+     * recipient keyring, loaded the first time it is needed
+     */
+    private Keyring keyring;
 
-    private static byte[] prevEncrypt;
+    /**
+     * precomputed ephemeral key pairs for EC encryption, sized by -Dec.pool.depth
+     * and -Dec.pool.refillDelayMillis
+     */
+    private EphemeralKeyPool ephemeralKeys;
 
 
 
@@ -40,18 +64,30 @@ public class Main {
     public static void main(String[] args) {
         // 2^8 = 255, 2^16 = 65536, 2^3 = 16777216
 
+        //"daemon" starts the long-running server, any other arguments select the
+        //non-interactive batch mode, see CryptoDaemon and BatchCLI
+        if (args.length > 0 && "daemon".equals(args[0])) {
+            CryptoDaemon.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        } else if (args.length > 0) {
+            System.exit(BatchCLI.run(args));
+        }
+
+        //the state of an interactive session lives in its own instance
+        Main session = new Main();
         Scanner userIn = new Scanner(System.in);
         int categoryResponse = selectCategoryPrompt(userIn);
 
         switch (categoryResponse) {
             case 1:
                 do {
-                    selectKMACServicePrompt(userIn);
+                    session.selectKMACServicePrompt(userIn);
                 } while (repeat(userIn));
                 userIn.close();
             case 2:
+                session.ephemeralKeys = EphemeralKeyPool.fromSystemProperties(new SecureRandom());
                 do {
-                    selectECServicePrompt(userIn);
+                    session.selectECServicePrompt(userIn);
                 } while (repeat(userIn));
                 userIn.close();
         }
@@ -81,7 +117,7 @@ public class Main {
         }
     }
 
-    private static void selectKMACServicePrompt(final Scanner userIn) {
+    private void selectKMACServicePrompt(final Scanner userIn) {
         String menuPrompt = """
                 Please enter the corresponding number of the service you would like to use:
                     1) Compute a plain cryptographic hash
@@ -101,7 +137,7 @@ public class Main {
         }
     }
 
-    private static void selectECServicePrompt(final Scanner userIn) {
+    private void selectECServicePrompt(final Scanner userIn) {
         String menuPrompt = """
                 Please enter the corresponding number of the service you would like to use:
                     1) Generate a public key to a file using an Elliptic Curve
@@ -113,8 +149,15 @@ public class Main {
                        a file
                     5) Verify a given data file and its signature file under a given public
                        key file
+                    6) Verify a batch of data, signature and public key files listed in a
+                       manifest file
+                    7) Encrypt a data file to a recipient from a keyring
+                    8) Encrypt a data file once for several public key files
+                    9) Decrypt a multi-recipient file from a given password
+                   10) Sign every file listed in a manifest from a given password and write
+                       all signatures to one indexed file
                 """;
-        int response = getIntInRange(userIn, menuPrompt, 1, 5);
+        int response = getIntInRange(userIn, menuPrompt, 1, 10);
         if (response == 1) {
             System.out.println("In 1");
             keyPairEC();
@@ -130,6 +173,16 @@ public class Main {
         } else if (response == 5) {
             System.out.println("In 5");
             verifyFileEC();
+        } else if (response == 6) {
+            verifyBatchFileEC();
+        } else if (response == 7) {
+            encryptKeyringEC();
+        } else if (response == 8) {
+            encryptMultiRecipientEC();
+        } else if (response == 9) {
+            decryptMultiRecipientEC();
+        } else if (response == 10) {
+            bulkSignFileEC();
         }
     }
 
@@ -161,6 +214,17 @@ public class Main {
         }
     }
 
+    private static boolean prehashPrompt(Scanner userIn) {
+        String menuPrompt = """
+                What signing mode would you like:
+                    1) Pure (signs the file contents)
+                    2) Prehash (signs a streamed 512-bit digest, reads large files only once)
+                """;
+        int response = getIntInRange(userIn, menuPrompt, 1, 2);
+        userIn.nextLine();
+        return response == 2;
+    }
+
     /**
      * Asks the user if they would like to repeat the program.
      * Accepted responses:
@@ -183,25 +247,35 @@ public class Main {
     /**
      * Driver method for the plain hash service.
      * Prints out a plain cryptographic hash for the given input using KMACXOF256.
-     * The user can choose between a file or command line for input.
+     * The user can choose between a file or command line for input; a file is hashed as its
+     * raw bytes, the same digest the hash command of BatchCLI prints.
      * @param input the input method, "file" for file input and "user input" for command line input.
      */
-    private static void plainHashServiceKMAC(final String input) {
+    private void plainHashServiceKMAC(final String input) {
         //input will be "file" or "user input"
-        byte[] byteArray;
-        String theString = null;
+        byte[] byteArray = null;
         Scanner userIn = new Scanner(System.in);
 
         if (input.equals("file")) { //input from file
             File inputFile = getUserInputFile(userIn);
-            theString = fileToString(inputFile);
+            //-Dkmac.digestCache=INDEX reuses the digest of a file that did not change
+            String cacheFile = System.getProperty("kmac.digestCache");
+            if (cacheFile != null) {
+                try (DigestCache cache = DigestCache.open(Path.of(cacheFile), DigestCache.DEFAULT_ENTRIES)) {
+                    System.out.println(bytesToHexString(cache.digest(inputFile.toPath(), "".getBytes(), "D".getBytes())));
+                    return;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            //the raw bytes of the file, the same bytes the digest cache hashes
+            byteArray = fileToBytes(inputFile);
         } else if (input.equals("user input")) { //input from command line
             System.out.println("Please enter a phrase to be hashed: ");
-            theString = userIn.nextLine();
+            byteArray = userIn.nextLine().getBytes();
         }
 
-        assert theString != null;
-        byteArray = theString.getBytes();
+        assert byteArray != null;
         byteArray = KMACXOF256("".getBytes(), byteArray, 512, "D".getBytes());
         System.out.println(bytesToHexString(byteArray));
     }
@@ -209,28 +283,27 @@ public class Main {
     /**
      * Driver method for the authentication tag service.
      * Prints out an authentication tag (MAC) for the given input under a given passphrase using KMACXOF256.
-     * The user can choose between a file or command line for input.
+     * The user can choose between a file or command line for input; a file is tagged as its
+     * raw bytes, the same tag the mac command of BatchCLI prints.
      * @param input the input method, "file" for file input and "user input" for command line input.
      */
-    private static void authTagServiceKMAC(final String input) {
+    private void authTagServiceKMAC(final String input) {
         //input will be "file" or "user input"
-        byte[] byteArray;
-        String thePhrase = null;
+        byte[] byteArray = null;
         String thePassphrase = null;
         Scanner userIn = new Scanner(System.in);
 
         if (input.equals("file")) { //input from file
             File inputFile = getUserInputFile(userIn);
-            thePhrase = fileToString(inputFile);
+            byteArray = fileToBytes(inputFile);
         } else if (input.equals("user input")) { //input from command line
             System.out.println("Please enter a phrase to be hashed: ");
-            thePhrase = userIn.nextLine();
+            byteArray = userIn.nextLine().getBytes();
         }
 
         System.out.println("Please enter a passphrase: ");
         thePassphrase = userIn.nextLine();
-        assert thePhrase != null;
-        byteArray = thePhrase.getBytes();
+        assert byteArray != null;
         byteArray = KMACXOF256(thePassphrase.getBytes(), byteArray, 512, "T".getBytes());
         System.out.println(bytesToHexString(byteArray));
     }
@@ -239,7 +312,7 @@ public class Main {
      * Driver method for the encryption service.
      * Prints out an encrypted version for the given input file under a given passphrase.
      */
-    private static void encryptServiceKMAC() {
+    private void encryptServiceKMAC() {
         Scanner userIn = new Scanner(System.in);
         File theFile = getUserInputFile(userIn);
         String theFileContent = fileToString(theFile);
@@ -255,7 +328,7 @@ public class Main {
      * Driver method for the decryption service.
      * Prints out a decrypted version for the given symmetric cryptogram under a given passphrase.
      */
-    private static void decryptServiceKMAC(String input) {
+    private void decryptServiceKMAC(String input) {
         Scanner userIn = new Scanner(System.in);
         String thePassphrase;
         byte[] decryptedByteArray = new byte[0];
@@ -280,21 +353,38 @@ public class Main {
      * @return an encrypted version of the given byte array.
      */
     private static byte[] encryptKMAC(byte[] m, String pw) {
-        byte[] rand = new byte[64];
-        z.nextBytes(rand);
+        return encryptKMAC(m, pw.getBytes());
+    }
+
+    /**
+     * Symmetric encryption on the shared service, see CryptoService.encryptKMAC.
+     * @param m the byte array to be encrypted.
+     * @param pw the passphrase or key bytes.
+     * @return an encrypted version of the given byte array.
+     */
+    public static byte[] encryptKMAC(byte[] m, byte[] pw) {
+        return SERVICE.encryptKMAC(m, pw);
+    }
 
-        //squeeze bits from sponge
-        byte[] keka = KMACXOF256(concat(rand, pw.getBytes()), "".getBytes(), 1024, "S".getBytes());
-        byte[] ke = new byte[64];
-        System.arraycopy(keka,0,ke,0,64);
-        byte[] ka = new byte[64];
-        System.arraycopy(keka, 64,ka,0,64);
-        
-        byte[] c = KMACXOF256(ke, "".getBytes(), (m.length * 8), "SKE".getBytes());
-        c =  xorBytes(c, m);
-        byte[] t = KMACXOF256(ka, m, 512, "SKA".getBytes());
+    /**
+     * Symmetric encryption with the compression stage on the shared service, see Compression.
+     * @param m the byte array to be encrypted.
+     * @param pw the passphrase or key bytes.
+     * @return the cryptogram of the framed, possibly deflated, data.
+     */
+    public static byte[] encryptKMACCompressed(byte[] m, byte[] pw) {
+        return SERVICE.encryptKMACCompressed(m, pw);
+    }
 
-        return concat(concat(rand, c), t);
+    /**
+     * Decrypts a cryptogram made by encryptKMACCompressed on the shared service.
+     * @param cryptogram the symmetric cryptogram to be decrypted.
+     * @param pw the passphrase or key bytes.
+     * @return the decrypted and inflated data.
+     * @throws IllegalArgumentException if the tags don't match or the payload is corrupt.
+     */
+    public static byte[] decryptKMACCompressed(byte[] cryptogram, byte[] pw) {
+        return SERVICE.decryptKMACCompressed(cryptogram, pw);
     }
 
     /**
@@ -304,41 +394,24 @@ public class Main {
      * @return a decrypted version of the given cryptogram.
      */
     private static byte[] decryptKMAC(byte[] cryptogram, String pw) {
-        byte[] rand = new byte[64];
-        //retrieve 512-bit random number contacted to beginning of cryptogram
-        System.arraycopy(cryptogram, 0, rand, 0, 64);
-
-        //retrieve the encrypted message
-        byte[] in = Arrays.copyOfRange(cryptogram, 64, cryptogram.length - 64);
-
-        //retrieve tag that was appended to cryptogram
-        byte[] tag = Arrays.copyOfRange(cryptogram, cryptogram.length - 64, cryptogram.length);
-
-        //squeeze bits from sponge
-        byte[] keka = KMACXOF256(concat(rand, pw.getBytes()), "".getBytes(), 1024, "S".getBytes());
-        byte[] ke = new byte[64];
-        System.arraycopy(keka,0,ke,0,64);
-        byte[] ka = new byte[64];
-        System.arraycopy(keka, 64,ka,0,64);
-
-        byte[] m = KMACXOF256(ke, "".getBytes(), (in.length*  8), "SKE".getBytes());
-        m = xorBytes(m, in);
-
-        byte[] tPrime = KMACXOF256(ka, m, 512, "SKA".getBytes());
+        return decryptKMAC(cryptogram, pw.getBytes());
+    }
 
-        if (Arrays.equals(tag, tPrime)) {
-            return m;
-        }
-        else {
-            throw new IllegalArgumentException("Tags didn't match");
-        }
+    /**
+     * Symmetric decryption on the shared service, see CryptoService.decryptKMAC.
+     * @param cryptogram the symmetric cryptogram to be decrypted.
+     * @param pw the passphrase or key bytes.
+     * @return a decrypted version of the given cryptogram.
+     */
+    public static byte[] decryptKMAC(byte[] cryptogram, byte[] pw) {
+        return SERVICE.decryptKMAC(cryptogram, pw);
     }
 
     /**************************************************************
      *                         EC Services                        *
      **************************************************************/
 
-    private static void keyPairEC() {
+    private void keyPairEC() {
         System.out.println("uwu in key pair :3");
 
         File publicKeyOutputFile = new File("PublicKeyOutputEC.txt");
@@ -352,13 +425,12 @@ public class Main {
         //Generate the key pair from the passphrase
 
         //s multiple of 4?
-        byte[] s = KMACXOF256(thePassphrase.getBytes(), "".getBytes(), 512, "SK".getBytes());
-        Point V = exponentiation(G, new BigInteger(s));
+        byte[] s = CryptoService.privateKey(thePassphrase);
+        Point V = toAffine(exponentiationG(new BigInteger(s)));
 
         try {
             FileWriter publicFw = new FileWriter(publicKeyOutputFile);
-            publicFw.write((bytesToHexString(V.getPx().toByteArray())) + "\n");
-            publicFw.write((bytesToHexString(V.getPy().toByteArray())) + "\n");
+            publicFw.write(bytesToHexString(encode(V)) + "\n");
             publicFw.close();
 
             FileWriter privateFw = new FileWriter(privateKeyOutputFile);
@@ -370,72 +442,156 @@ public class Main {
 
     }
 
-    private static void encryptEC() {
+    /**
+     * Derives the public keys V = s*G for many passphrases at once on the shared service.
+     * @param passphrases the passphrases to derive the key pairs from.
+     * @return the public key of every passphrase, in the same order.
+     */
+    public static Point[] publicKeysEC(String... passphrases) {
+        return SERVICE.publicKeysEC(passphrases);
+    }
+
+    private void encryptEC() {
         System.out.println("ooo encrypt me daddy");
         Scanner userIn = new Scanner(System.in);
-        File inputFile;
-        File encryptOutputFile = new File("CiphertextOutput.txt");
-        String input = null;
+        File encryptOutputFile = new File("CiphertextOutput.bin");
+
+        System.out.println("PUBLIC KEY FILE");
+        Point V = readPublicKey(getUserInputFile(userIn));
+        //k and Z = k*G come precomputed from the pool
+        EphemeralKeyPool.EphemeralKey k = ephemeralKeys.take();
+        //only the x coordinate of W = k*V is needed, so use the x-only ladder
+        BigInteger Wx = exponentiationX(V, new BigInteger(k.getK()));
 
         //get input
         String s = fileOrInputPrompt(userIn);
-        if ("file".equals(s)) {
-            System.out.println("Chosen File :]");
-            Scanner fileInputScan = new Scanner(System.in);
-            inputFile = getUserInputFile(fileInputScan);
-            input = fileToString(inputFile);
-        } else if ("user input".equals(s)) {
-            System.out.println("Chosen user input :]");
-            System.out.println("Please input a message you would like to be encrypted:");
-            input = userIn.nextLine();
+        try {
+            if ("file".equals(s)) {
+                System.out.println("Chosen File :]");
+                Scanner fileInputScan = new Scanner(System.in);
+                File inputFile = getUserInputFile(fileInputScan);
+                try (FileChannel in = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ)) {
+                    encryptEC(in, k, Wx, encryptOutputFile.toPath());
+                }
+            } else if ("user input".equals(s)) {
+                System.out.println("Chosen user input :]");
+                System.out.println("Please input a message you would like to be encrypted:");
+                byte[] input = userIn.nextLine().getBytes();
+                encryptEC(Channels.newChannel(new ByteArrayInputStream(input)), k, Wx, encryptOutputFile.toPath());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
         }
+    }
 
-        //encrypt input data (Stored in "input" string)
-        byte[] m = hexStringToBytes(input);
-        //make sure k is multiple of 4
-        byte[] k = new byte[64];
-        z.nextBytes(k);
+    /**
+     * Encrypts to a recipient of a keyring, reusing the cached window table of their key.
+     */
+    private void encryptKeyringEC() {
+        Scanner userIn = new Scanner(System.in);
+        if (keyring == null) {
+            System.out.println("KEYRING (directory of public key files or indexed key file)");
+            try {
+                keyring = Keyring.load(getUserInputFile(userIn), Keyring.DEFAULT_CACHE_SIZE);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+        System.out.println("Please enter the name of the recipient: ");
+        String name = userIn.nextLine();
+
+        System.out.println("DATA FILE");
+        File dataFile = getUserInputFile(userIn);
+        EphemeralKeyPool.EphemeralKey k = ephemeralKeys.take();
 
-        Scanner stringScanner = new Scanner(input);
-        Point V = new Point(new BigInteger(hexStringToBytes(stringScanner.nextLine())), new BigInteger(hexStringToBytes(stringScanner.nextLine())));
+        BigInteger Wx = keyring.exponentiation(name, new BigInteger(k.getK())).getPx();
+        try (FileChannel in = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ)) {
+            encryptEC(in, k, Wx, Path.of("CiphertextOutput.bin"));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-        Point W = exponentiation(V, new BigInteger(k));
-        Point Z = exponentiation(G, new BigInteger(k));
+    /**
+     * Encrypts a data file once and wraps its key for every listed public key file.
+     */
+    private void encryptMultiRecipientEC() {
+        Scanner userIn = new Scanner(System.in);
+        System.out.println("DATA FILE");
+        File dataFile = getUserInputFile(userIn);
+        System.out.println("Please enter the number of recipients: ");
+        int n = Integer.parseInt(userIn.nextLine().trim());
+        Point[] V = new Point[n];
+        for (int i = 0; i < n; i++) {
+            System.out.println("PUBLIC KEY FILE " + (i + 1));
+            V[i] = readPublicKey(getUserInputFile(userIn));
+        }
 
-        //squeeze bits from sponge
-        byte[] keka = KMACXOF256(W.getPx().toByteArray(), "".getBytes(), 1024, "PK".getBytes());
-        byte[] ke = new byte[64];
-        System.arraycopy(keka,0,ke,0,64);
-        byte[] ka = new byte[64];
-        System.arraycopy(keka, 64,ka,0,64);
+        try {
+            new MultiRecipient(SERVICE).encrypt(Files.readAllBytes(dataFile.toPath()), V, ephemeralKeys, new File("MultiCiphertextOutput.txt"));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-        byte[] c = KMACXOF256(ke, "".getBytes(), (m.length * 8), "PKE".getBytes());
-        c =  xorBytes(c, m);
-        byte[] t = KMACXOF256(ka, m, 512, "PKA".getBytes());
+    /**
+     * Decrypts a multi-recipient file with the passphrase of one of its recipients.
+     */
+    private void decryptMultiRecipientEC() {
+        Scanner userIn = new Scanner(System.in);
+        File inputFile = getUserInputFile(userIn);
+        System.out.println("Please enter a passphrase used to encrypt: ");
+        String thePassphrase = userIn.nextLine();
 
-        //write the cipertext to the output file
         try {
-            FileWriter cipherTextFw = new FileWriter(encryptOutputFile);
-            cipherTextFw.write(bytesToHexString(Z.getPx().toByteArray()) + "\n");
-            cipherTextFw.write(bytesToHexString(Z.getPy().toByteArray()) + "\n");
-            cipherTextFw.write(bytesToHexString(c) + "\n");
-            cipherTextFw.write(bytesToHexString(t) + "\n");
-            cipherTextFw.close();
+            Files.write(new File("DecryptedMultiEC.txt").toPath(), new MultiRecipient(SERVICE).decrypt(inputFile, thePassphrase));
         } catch (IOException e) {
             e.printStackTrace();
         }
+    }
 
+    /**
+     * Streaming EC encryption on the shared service, see CryptoService.encryptEC.
+     * @param in the data to be encrypted.
+     * @param k the ephemeral key pair (k, Z = k*G), destroyed once it has been used.
+     * @param Wx the x coordinate of W = k*V.
+     * @param outputPath the file the cryptogram (Z, c, t) is written to.
+     * @throws IOException if reading the data or writing the cryptogram fails.
+     */
+    public static void encryptEC(ReadableByteChannel in, EphemeralKeyPool.EphemeralKey k, BigInteger Wx, Path outputPath) throws IOException {
+        SERVICE.encryptEC(in, k, Wx, outputPath);
+    }
+
+    /**
+     * EC encryption of data in memory on the shared service.
+     * @param m the data to be encrypted.
+     * @param k the ephemeral key pair (k, Z = k*G), destroyed once it has been used.
+     * @param Wx the x coordinate of W = k*V.
+     * @return the cryptogram Z || c || t.
+     */
+    public static byte[] encryptEC(byte[] m, EphemeralKeyPool.EphemeralKey k, BigInteger Wx) {
+        return SERVICE.encryptEC(m, k, Wx);
     }
 
-    private static void decryptEC() {
+    /**
+     * EC decryption of a cryptogram in memory on the shared service.
+     * @param cryptogram the cryptogram Z || c || t.
+     * @param passphrase the passphrase of the recipient.
+     * @return the decrypted data.
+     * @throws IllegalArgumentException if the tags don't match.
+     */
+    public static byte[] decryptEC(byte[] cryptogram, String passphrase) {
+        return SERVICE.decryptEC(cryptogram, passphrase);
+    }
+
+    private void decryptEC() {
         System.out.println("MM decrypt :P");
         Scanner userIn = new Scanner(System.in);
         Scanner fileIn = new Scanner(System.in);
         File inputFile;
         File outputFile = new File("DecryptedEC.txt");
         String thePassphrase;
-        String inputFileContents;
-        String decryptedData;
 
         //get file
         inputFile = getUserInputFile(fileIn);
@@ -444,58 +600,60 @@ public class Main {
         System.out.println("Please enter a passphrase used to encrypt: ");
         thePassphrase = userIn.nextLine();
 
-        //get file contents
-        inputFileContents = fileToString(inputFile);
-        Scanner stringScanner = new Scanner(inputFileContents);
-        Point Z = new Point(new BigInteger(hexStringToBytes(stringScanner.nextLine())), new BigInteger(hexStringToBytes(stringScanner.nextLine())));
-        byte[] c = hexStringToBytes(stringScanner.nextLine());
-        byte[] t = hexStringToBytes(stringScanner.nextLine());
-
-        //decrypt file contents
-
-        //Make sure it is multiple of 4?
-        byte[] s = KMACXOF256(thePassphrase.getBytes(), "".getBytes(), 512, "SK".getBytes());
-
-        Point W = exponentiation(Z, new BigInteger(s));
-        //squeeze bits from sponge
-        byte[] keka = KMACXOF256(W.getPx().toByteArray(), "".getBytes(), 1024, "PK".getBytes());
-        byte[] ke = new byte[64];
-        System.arraycopy(keka,0,ke,0,64);
-        byte[] ka = new byte[64];
-        System.arraycopy(keka, 64,ka,0,64);
-
-        byte[] m = KMACXOF256(ke, "".getBytes(), (c.length*  8), "PKE".getBytes());
-        m = xorBytes(m, c);
-
-        byte[] tPrime = KMACXOF256(ka, m, 512, "PKA".getBytes());
-
-        if (Arrays.equals(t, tPrime)) {
-            writeToOutputFile(outputFile, bytesToHexString(m));
-        }
-        else {
-            throw new IllegalArgumentException("Tags didn't match");
+        try {
+            decryptEC(inputFile.toPath(), thePassphrase, outputFile.toPath());
+        } catch (IOException e) {
+            e.printStackTrace();
         }
+    }
 
+    /**
+     * Streaming EC decryption on the shared service, see CryptoService.decryptEC.
+     * @param inputPath the cryptogram (Z, c, t) written by the encryption service.
+     * @param passphrase the passphrase of the recipient.
+     * @param outputPath the file the decrypted data is written to.
+     * @throws IOException if reading the cryptogram or writing the data fails.
+     * @throws IllegalArgumentException if the tags don't match.
+     */
+    public static void decryptEC(Path inputPath, String passphrase, Path outputPath) throws IOException {
+        SERVICE.decryptEC(inputPath, passphrase, outputPath);
     }
 
-    private static void signFileEC() {
+    /**
+     * Streaming EC decryption on the shared service, optionally of a compressed payload.
+     * @param inputPath the cryptogram (Z, c, t) written by the encryption service.
+     * @param passphrase the passphrase of the recipient.
+     * @param outputPath the file the decrypted data is written to.
+     * @param compressed whether the payload is framed by the compression stage.
+     * @throws IOException if reading the cryptogram or writing the data fails.
+     * @throws IllegalArgumentException if the tags don't match or the payload is corrupt.
+     */
+    public static void decryptEC(Path inputPath, String passphrase, Path outputPath, boolean compressed) throws IOException {
+        SERVICE.decryptEC(inputPath, passphrase, outputPath, compressed);
+    }
+
+    private void signFileEC() {
         System.out.println("sign FILE!");
         Scanner userIn = new Scanner(System.in);
-        File inputFile;
         File signedFile = new File("SignedInputSignature.txt");
-        String inputData;
+        byte[] inputData = null;
+        File inputFile = null;
+        boolean prehash = false;
 
         //get input
         String fileOrInputPrompt = fileOrInputPrompt(userIn);
         if ("file".equals(fileOrInputPrompt)) {
             System.out.println("Chosen File :]");
+            prehash = prehashPrompt(userIn);
             Scanner fileIn = new Scanner(System.in);
             inputFile = getUserInputFile(fileIn);
-            inputData = fileToString(inputFile);
+            if (!prehash) {
+                inputData = fileToBytes(inputFile);
+            }
         } else if ("user input".equals(fileOrInputPrompt)) {
             System.out.println("Chosen user input :]");
             System.out.println("Please input a message you would like to be encrypted:");
-            inputData = userIn.nextLine();
+            inputData = userIn.nextLine().getBytes();
         } else {
             throw new IllegalStateException("Unexpected value: " + fileOrInputPrompt(userIn));
         }
@@ -506,19 +664,23 @@ public class Main {
 
         //sign input
         //make sure it is a multiple of 4?
-        byte[] s = KMACXOF256(thePassphrase.getBytes(), "".getBytes(), 512, "SK".getBytes());
-        // make sure it is a multiple of 4?
-        byte[] k = KMACXOF256(s, inputData.getBytes(),512, "N".getBytes());
-        Point U = exponentiation(G, new BigInteger(k));
-
-        byte[] h = KMACXOF256(U.getPx().toByteArray(), inputData.getBytes() ,512, "T".getBytes());
-        byte[] z = (new BigInteger(k).subtract(new BigInteger(h).multiply(new BigInteger(s)))).mod(getR()).toByteArray();
+        byte[] s = CryptoService.privateKey(thePassphrase);
+        byte[][] signature;
+        try {
+            signature = prehash ? signPrehashEC(inputFile.toPath(), s) : signEC(inputData, s);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
 
         //write signed input to file
         try {
             FileWriter signedFw = new FileWriter(signedFile);
-            signedFw.write(bytesToHexString(h) + "\n");
-            signedFw.write(bytesToHexString(z) + "\n");
+            signedFw.write(bytesToHexString(signature[0]) + "\n");
+            signedFw.write(bytesToHexString(signature[1]) + "\n");
+            if (prehash) {
+                signedFw.write(PREHASH_MARKER + "\n");
+            }
             signedFw.close();
         } catch (IOException e) {
             e.printStackTrace();
@@ -526,15 +688,65 @@ public class Main {
 
     }
 
-    private static void verifyFileEC() {
+    /**
+     * Signing on the shared service, see CryptoService.signEC.
+     * @param data the data to be signed.
+     * @param s the private key.
+     * @return the signature {h, z}.
+     */
+    public static byte[][] signEC(byte[] data, byte[] s) {
+        return SERVICE.signEC(data, s);
+    }
+
+    /**
+     * Prehash signing of a file on the shared service, see CryptoService.signPrehashEC.
+     * @param dataPath the file to be signed.
+     * @param s the private key.
+     * @return the signature {h, z}.
+     * @throws IOException if the file can not be read.
+     */
+    public static byte[][] signPrehashEC(Path dataPath, byte[] s) throws IOException {
+        return SERVICE.signPrehashEC(dataPath, s);
+    }
+
+    /**
+     * Streams a file into the 512-bit digest that prehash signatures sign.
+     * @param dataPath the file to be hashed.
+     * @return the 64-byte digest.
+     * @throws IOException if the file can not be read.
+     */
+    public static byte[] prehashEC(Path dataPath) throws IOException {
+        return SERVICE.prehashEC(dataPath);
+    }
+
+    /**
+     * Signs every file listed in a manifest (one path per line) under one passphrase.
+     */
+    private void bulkSignFileEC() {
+        Scanner userIn = new Scanner(System.in);
+        System.out.println("MANIFEST FILE");
+        File manifest = getUserInputFile(userIn);
+        System.out.println("Please enter a passphrase used to encrypt: ");
+        String thePassphrase = userIn.nextLine();
+
+        try {
+            List<Path> files = new ArrayList<>();
+            for (String line : Files.readAllLines(manifest.toPath())) {
+                if (!line.isBlank()) files.add(Path.of(line.trim()));
+            }
+            BulkSigner.signAll(files, thePassphrase, Path.of("BulkSignatures.txt"));
+            System.out.println("Signed " + files.size() + " files");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void verifyFileEC() {
         System.out.println("in verify file");
         Scanner userIn = new Scanner(System.in);
         File dataFile;
         File signatureFile;
         File publicKeyFile;
-        String dataFileContents;
-        String signatureFileContents;
-
 
         System.out.println("DATA FILE");
         dataFile = getUserInputFile(userIn);
@@ -553,21 +765,22 @@ public class Main {
         byte[] h = hexStringToBytes(hexStringH);
         String hexStringZ = signedFileReader.nextLine();
         byte[] z = hexStringToBytes(hexStringZ);
+        boolean prehash = signedFileReader.hasNextLine() && PREHASH_MARKER.equals(signedFileReader.nextLine().trim());
 
         System.out.println("PUBLIC KEY FILE");
         publicKeyFile = getUserInputFile(userIn);
-        Scanner stringScanner = null;
+        Point V = readPublicKey(publicKeyFile);
+
+        //verify
+        boolean valid;
         try {
-            stringScanner = new Scanner(publicKeyFile);
-        } catch (FileNotFoundException e) {
+            valid = prehash ? verifyPrehashEC(dataFile.toPath(), h, z, V)
+                    : verifyEC(Files.readAllBytes(dataFile.toPath()), h, z, V);
+        } catch (IOException e) {
             e.printStackTrace();
+            return;
         }
-        assert stringScanner != null;
-        Point V = new Point(new BigInteger(hexStringToBytes(stringScanner.nextLine())), new BigInteger(hexStringToBytes(stringScanner.nextLine())));
-
-        //verify
-        Point U = add(exponentiation(G, new BigInteger(z)), exponentiation(V, new BigInteger(h)));
-        if (Arrays.toString(KMACXOF256(U.getPx().toByteArray(), fileToString(dataFile).getBytes(), 512, "T".getBytes())).equals(Arrays.toString(h))) {
+        if (valid) {
             //successs
             System.out.println("Verification Success");
         } else {
@@ -576,6 +789,90 @@ public class Main {
 
     }
 
+    /**
+     * Verifies every (data file, signature file, public key file) triple listed in a manifest.
+     * Each line of the manifest holds the three paths separated by whitespace. The raw bytes of
+     * a data file are verified, as the signing service signs them.
+     */
+    private void verifyBatchFileEC() {
+        Scanner userIn = new Scanner(System.in);
+        System.out.println("MANIFEST FILE");
+        File manifest = getUserInputFile(userIn);
+
+        List<String> lines = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(manifest.toPath())) {
+                if (!line.isBlank()) lines.add(line.trim());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        int n = lines.size();
+        byte[][] data = new byte[n][];
+        byte[][] h = new byte[n][];
+        byte[][] z = new byte[n][];
+        boolean[] prehash = new boolean[n];
+        String[] keys = new String[n];
+        //keys that sign many entries share one cached window table
+        Keyring manifestKeys = new Keyring(Keyring.DEFAULT_CACHE_SIZE);
+        for (int i = 0; i < n; i++) {
+            String[] paths = lines.get(i).split("\\s+");
+            if (paths.length < 3) {
+                System.out.println("Expected \"data signature publickey\" in line " + (i + 1) + ": " + lines.get(i));
+                return;
+            }
+            try (Scanner signatureReader = new Scanner(Path.of(paths[1]))) {
+                h[i] = hexStringToBytes(signatureReader.nextLine());
+                z[i] = hexStringToBytes(signatureReader.nextLine());
+                prehash[i] = signatureReader.hasNextLine() && PREHASH_MARKER.equals(signatureReader.nextLine().trim());
+                data[i] = prehash[i] ? prehashEC(Path.of(paths[0])) : Files.readAllBytes(Path.of(paths[0]));
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            } catch (NoSuchElementException e) {
+                System.out.println("Signature file " + paths[1] + " needs an h and a z line");
+                return;
+            }
+            keys[i] = paths[2];
+            if (!manifestKeys.contains(keys[i])) {
+                manifestKeys.add(keys[i], readPublicKey(new File(keys[i])));
+            }
+        }
+
+        List<Integer> failed = BatchVerifier.verifyBatch(data, h, z, manifestKeys, keys, prehash);
+        System.out.println((n - failed.size()) + " of " + n + " signatures verified");
+        for (int i : failed) {
+            System.out.println("Verification Failed: " + lines.get(i));
+        }
+    }
+
+    /**
+     * Verification on the shared service, see CryptoService.verifyEC.
+     * @param data the signed data.
+     * @param h the h component of the signature.
+     * @param z the z component of the signature.
+     * @param V the public key of the signer.
+     * @return true if the signature is valid for the data under V.
+     */
+    public static boolean verifyEC(byte[] data, byte[] h, byte[] z, Point V) {
+        return SERVICE.verifyEC(data, h, z, V);
+    }
+
+    /**
+     * Prehash verification on the shared service, see CryptoService.verifyPrehashEC.
+     * @param dataPath the signed file.
+     * @param h the h component of the signature.
+     * @param z the z component of the signature.
+     * @param V the public key of the signer.
+     * @return true if the signature is a valid prehash signature of the file under V.
+     * @throws IOException if the file can not be read.
+     */
+    public static boolean verifyPrehashEC(Path dataPath, byte[] h, byte[] z, Point V) throws IOException {
+        return SERVICE.verifyPrehashEC(dataPath, h, z, V);
+    }
+
     /**************************************************************
      *                        User Input                          *
      **************************************************************/
@@ -658,19 +955,28 @@ public class Main {
     }
 
     /**
-     * Writes all the required information to the specified output file.
+     * Reads the raw content of a file.
+     * @param theFile the File object to be read.
+     * @return the bytes of the file.
      */
-    private static void writeToOutputFile(File outputFile, String contents) {
-        Scanner stringScan = new Scanner(contents);
+    public static byte[] fileToBytes(final File theFile) {
+        byte[] theBytes = null;
         try {
-            FileWriter fw = new FileWriter(outputFile);
-            while (stringScan.hasNextLine()) {
-                fw.write(stringScan.nextLine());
-            }
-            fw.close();
+            theBytes = Files.readAllBytes(theFile.getAbsoluteFile().toPath());
         } catch (IOException e) {
             e.printStackTrace();
         }
+        return theBytes;
+    }
+
+    /**
+     * Reads a public key file written by the key pair service.
+     * @param publicKeyFile the file holding the 57-byte compressed encoding of V as a hex line.
+     * @return the public key point V.
+     */
+    public static Point readPublicKey(final File publicKeyFile) {
+        Scanner stringScanner = new Scanner(fileToString(publicKeyFile));
+        return decode(hexStringToBytes(stringScanner.nextLine()));
     }
 
 }
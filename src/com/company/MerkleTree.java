@@ -0,0 +1,420 @@
+package com.company;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import static com.company.KMAC.*;
+
+/**
+ * Merkle tree over the fixed-size leaves of a large file, persisted in a sidecar file, so that
+ * after a small change only the dirty leaves are read again and only their paths to the root
+ * are recomputed. The leaves, the inner nodes and the root are KMACXOF256 digests separated
+ * by their customization strings:
+ *   leaf  = KMACXOF256("", leaf bytes, 512, "ML")
+ *   node  = KMACXOF256("", left || right, 512, "MN")   (right is missing for an odd last node)
+ *   root  = KMACXOF256("", file length || leaf size || top node, 512, "MR")
+ * An empty file has a single empty leaf.
+ *
+ * Dirty leaves are either given by the caller (updateLeaves) or found by reading the leaves
+ * of the changed byte ranges and comparing their digests with the stored ones (updateRanges).
+ * Both trust the caller to name every change: if the file length changed too, the inner
+ * nodes are rebuilt from the stored leaf digests and only the leaves past the old end are
+ * read. Without such a list of changes a file whose length changed must be built again.
+ * All leaves of an update are read before any digest is written, so a failed read leaves the
+ * sidecar as it was.
+ *
+ * Like DigestCache, isCurrent does not trust a file that was modified within
+ * DigestCache.MTIME_SLACK_MILLIS of its tree being written, since a change in the same
+ * timestamp tick would otherwise go unnoticed.
+ *
+ * Sidecar layout: magic || leaf size || file length || file mtime nanos || leaf count ||
+ * written at millis (8 bytes each), padded to HEADER_SIZE, then the root, then every level
+ * from the leaves up.
+ */
+public class MerkleTree implements AutoCloseable {
+
+    /**
+     * default leaf size
+     */
+    public static final int DEFAULT_LEAF_SIZE = 1 << 16;
+
+    private static final long MAGIC = 0x4b4d4143_4d543031L; // "KMACMT01"
+
+    private static final int HEADER_SIZE = 64;
+
+    private static final int DIGEST_SIZE = 64;
+
+    private final Path file;
+
+    private final Path sidecar;
+
+    private final int leafSize;
+
+    private FileChannel tree;
+
+    private long fileLength;
+
+    private long[] levelOffsets;
+
+    private long[] levelSizes;
+
+    private long leavesRead;
+
+    private MerkleTree(final Path file, final Path sidecar, final FileChannel tree, final int leafSize,
+                       final long fileLength) {
+        this.file = file;
+        this.sidecar = sidecar;
+        this.tree = tree;
+        this.leafSize = leafSize;
+        this.fileLength = fileLength;
+        layout();
+    }
+
+    /**
+     * Hashes a whole file and writes its tree to the sidecar.
+     * @param file the file
+     * @param sidecar the sidecar file, replaced if it exists
+     * @param leafSize the leaf size in bytes
+     * @return the open tree
+     * @throws IOException if the file can not be read or the sidecar written
+     */
+    public static MerkleTree build(final Path file, final Path sidecar, final int leafSize) throws IOException {
+        if (leafSize < 1) throw new IllegalArgumentException("Leaf size must be positive.");
+        FileChannel tree = FileChannel.open(sidecar, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MerkleTree merkle = new MerkleTree(file, sidecar, tree, leafSize, Files.size(file));
+        try {
+            try (FileChannel data = FileChannel.open(file, StandardOpenOption.READ)) {
+                for (long leaf = 0; leaf < merkle.levelSizes[0]; leaf++) {
+                    merkle.writeNode(0, leaf, merkle.hashLeaf(data, leaf));
+                }
+            }
+            merkle.rebuildInnerNodes();
+        } catch (IOException | RuntimeException e) {
+            merkle.close();
+            throw e;
+        }
+        return merkle;
+    }
+
+    /**
+     * Opens the tree of a file from its sidecar. The tree is not brought up to date, see
+     * isCurrent, updateLeaves and updateRanges.
+     * @param file the file
+     * @param sidecar the sidecar written by build
+     * @return the open tree
+     * @throws IOException if the sidecar can not be read or is not a tree
+     */
+    public static MerkleTree open(final Path file, final Path sidecar) throws IOException {
+        FileChannel tree = FileChannel.open(sidecar, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(tree, header, 0);
+            if (header.getLong(0) != MAGIC) throw new IOException(sidecar + " is not a Merkle tree");
+            return new MerkleTree(file, sidecar, tree, (int) header.getLong(8), header.getLong(16));
+        } catch (IOException | RuntimeException e) {
+            tree.close();
+            throw e;
+        }
+    }
+
+    /************************************************************
+     *                        Operations                        *
+     ************************************************************/
+
+    /**
+     * @return the root digest
+     * @throws IOException if the sidecar can not be read
+     */
+    public byte[] root() throws IOException {
+        ByteBuffer root = ByteBuffer.allocate(DIGEST_SIZE);
+        readFully(tree, root, HEADER_SIZE);
+        return root.array();
+    }
+
+    /**
+     * Whether the file has the length and modification time the tree was last updated for,
+     * and was not modified within DigestCache.MTIME_SLACK_MILLIS before that update, i.e. the
+     * root can be trusted without reading the file.
+     * @return true if the file looks unchanged
+     * @throws IOException if the sidecar or the file attributes can not be read
+     */
+    public boolean isCurrent() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(tree, header, 0);
+        FileTime mtime = Files.getLastModifiedTime(file);
+        return header.getLong(16) == Files.size(file)
+                && header.getLong(24) == mtime.to(TimeUnit.NANOSECONDS)
+                && header.getLong(40) - mtime.toMillis() >= DigestCache.MTIME_SLACK_MILLIS;
+    }
+
+    /**
+     * Rehashes the given leaves without comparing them and recomputes their paths to the root.
+     * @param leaves the indices of the dirty leaves
+     * @return the new root digest
+     * @throws IOException if the file can not be read or the sidecar written
+     */
+    public byte[] updateLeaves(final long... leaves) throws IOException {
+        TreeMap<Long, byte[]> dirty = new TreeMap<>();
+        try (FileChannel data = FileChannel.open(file, StandardOpenOption.READ)) {
+            syncLength();
+            for (long leaf : leaves) {
+                if (leaf < 0 || leaf >= levelSizes[0]) throw new IllegalArgumentException("No leaf " + leaf);
+                dirty.put(leaf, hashLeaf(data, leaf));
+            }
+        }
+        return propagate(dirty);
+    }
+
+    /**
+     * Reads the leaves overlapping the changed byte ranges, compares their digests with the
+     * stored ones and recomputes the paths of those that differ.
+     * @param ranges the changed ranges as {offset, length} pairs
+     * @return the new root digest
+     * @throws IOException if the file can not be read or the sidecar written
+     */
+    public byte[] updateRanges(final long[]... ranges) throws IOException {
+        TreeMap<Long, byte[]> dirty = new TreeMap<>();
+        try (FileChannel data = FileChannel.open(file, StandardOpenOption.READ)) {
+            syncLength();
+            TreeSet<Long> candidates = new TreeSet<>();
+            for (long[] range : ranges) {
+                if (range[1] <= 0) continue;
+                long first = Math.min(range[0] / leafSize, levelSizes[0] - 1);
+                long last = Math.min((range[0] + range[1] - 1) / leafSize, levelSizes[0] - 1);
+                for (long leaf = first; leaf <= last; leaf++) {
+                    candidates.add(leaf);
+                }
+            }
+            for (long leaf : candidates) {
+                byte[] digest = hashLeaf(data, leaf);
+                if (!Arrays.equals(digest, readNode(0, leaf))) {
+                    dirty.put(leaf, digest);
+                }
+            }
+        }
+        return propagate(dirty);
+    }
+
+    /**
+     * Flushes and closes the sidecar.
+     */
+    @Override
+    public void close() throws IOException {
+        tree.force(false);
+        tree.close();
+    }
+
+    /************************************************************
+     *                      Helper Methods                      *
+     ************************************************************/
+
+    // writes the new leaf digests, recomputes their parents level by level, then the root
+    private byte[] propagate(TreeMap<Long, byte[]> leaves) throws IOException {
+        for (Map.Entry<Long, byte[]> leaf : leaves.entrySet()) {
+            writeNode(0, leaf.getKey(), leaf.getValue());
+        }
+        Set<Long> dirty = leaves.keySet();
+        for (int level = 0; level + 1 < levelSizes.length; level++) {
+            TreeSet<Long> parents = new TreeSet<>();
+            for (long node : dirty) {
+                parents.add(node >>> 1);
+            }
+            for (long parent : parents) {
+                writeNode(level + 1, parent, hashNode(level, parent));
+            }
+            dirty = parents;
+        }
+        return writeRoot();
+    }
+
+    // recomputes every inner node from the stored leaf digests, then the root
+    private void rebuildInnerNodes() throws IOException {
+        for (int level = 1; level < levelSizes.length; level++) {
+            for (long node = 0; node < levelSizes[level]; node++) {
+                writeNode(level, node, hashNode(level - 1, node));
+            }
+        }
+        writeRoot();
+    }
+
+    // moves to a new file length: the leaves before the last common one are kept, the rest are
+    // read, and the tree is rewritten with its new shape
+    private void resize(final long newLength) throws IOException {
+        long oldLeaves = levelSizes[0];
+        long oldOffset = levelOffsets[0];
+        long oldLength = fileLength;
+        FileChannel old = tree;
+        Path temp = Files.createTempFile(sidecar.toAbsolutePath().getParent(), "merkle", ".tmp");
+        FileChannel resized = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            tree = resized;
+            fileLength = newLength;
+            layout();
+            long kept = Math.min(oldLeaves, levelSizes[0]) - 1;
+            for (long done = 0; done < kept * DIGEST_SIZE; ) {
+                done += old.transferTo(oldOffset + done, kept * DIGEST_SIZE - done,
+                        resized.position(levelOffsets[0] + done));
+            }
+            try (FileChannel data = FileChannel.open(file, StandardOpenOption.READ)) {
+                for (long leaf = kept; leaf < levelSizes[0]; leaf++) {
+                    writeNode(0, leaf, hashLeaf(data, leaf));
+                }
+            }
+            rebuildInnerNodes();
+            old.close();
+        } catch (IOException | RuntimeException e) {
+            resized.close();
+            Files.deleteIfExists(temp);
+            tree = old;
+            fileLength = oldLength;
+            layout();
+            throw e;
+        }
+        Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // picks up a change of the file length before an update
+    private void syncLength() throws IOException {
+        long length = Files.size(file);
+        if (length != fileLength) resize(length);
+    }
+
+    // computes the level sizes and their offsets in the sidecar for the current file length
+    private void layout() {
+        long leaves = Math.max(1, (fileLength + leafSize - 1) / leafSize);
+        int levels = 1;
+        for (long n = leaves; n > 1; n = (n + 1) / 2) {
+            levels++;
+        }
+        levelSizes = new long[levels];
+        levelOffsets = new long[levels];
+        long offset = HEADER_SIZE + DIGEST_SIZE;
+        long n = leaves;
+        for (int level = 0; level < levels; level++) {
+            levelSizes[level] = n;
+            levelOffsets[level] = offset;
+            offset += n * DIGEST_SIZE;
+            n = (n + 1) / 2;
+        }
+    }
+
+    private byte[] hashLeaf(final FileChannel data, final long leaf) throws IOException {
+        long offset = leaf * leafSize;
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(leafSize, fileLength - offset));
+        readFully(data, buffer, offset);
+        leavesRead++;
+        return leafDigest(buffer.array());
+    }
+
+    // the digest of the node at index of level + 1 from its children on level
+    private byte[] hashNode(final int level, final long index) throws IOException {
+        byte[] left = readNode(level, 2 * index);
+        return nodeDigest(left, 2 * index + 1 < levelSizes[level] ? readNode(level, 2 * index + 1) : null);
+    }
+
+    // computes and stores the root and the header for the current file version
+    private byte[] writeRoot() throws IOException {
+        byte[] root = rootDigest(fileLength, leafSize, readNode(levelSizes.length - 1, 0));
+        FileTime mtime = Files.getLastModifiedTime(file);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putLong(MAGIC).putLong(leafSize).putLong(fileLength)
+                .putLong(mtime.to(TimeUnit.NANOSECONDS)).putLong(levelSizes[0]).putLong(System.currentTimeMillis());
+        writeFully(tree, header.clear(), 0);
+        writeFully(tree, ByteBuffer.wrap(root), HEADER_SIZE);
+        return root;
+    }
+
+    /**
+     * @param leaf the bytes of a leaf
+     * @return the digest of the leaf
+     */
+    static byte[] leafDigest(final byte[] leaf) {
+        return KMACXOF256("".getBytes(), leaf, 512, "ML".getBytes());
+    }
+
+    // the digest of an inner node, right is null for an odd last node
+    private static byte[] nodeDigest(final byte[] left, final byte[] right) {
+        return KMACXOF256("".getBytes(), right == null ? left : concat(left, right), 512, "MN".getBytes());
+    }
+
+    private static byte[] rootDigest(final long fileLength, final int leafSize, final byte[] top) {
+        byte[] prefix = ByteBuffer.allocate(16).putLong(fileLength).putLong(leafSize).array();
+        return KMACXOF256("".getBytes(), concat(prefix, top), 512, "MR".getBytes());
+    }
+
+    /**
+     * Computes the root from all leaf digests in memory, without a sidecar. The result equals
+     * the root build computes for the same file and leaf size.
+     * @param leaves the leaf digests, in order
+     * @param fileLength the length of the file
+     * @param leafSize the leaf size
+     * @return the root digest
+     */
+    static byte[] root(final byte[][] leaves, final long fileLength, final int leafSize) {
+        byte[][] level = leaves;
+        while (level.length > 1) {
+            byte[][] parents = new byte[(level.length + 1) / 2][];
+            for (int i = 0; i < parents.length; i++) {
+                parents[i] = nodeDigest(level[2 * i], 2 * i + 1 < level.length ? level[2 * i + 1] : null);
+            }
+            level = parents;
+        }
+        return rootDigest(fileLength, leafSize, level[0]);
+    }
+
+    private byte[] readNode(final int level, final long index) throws IOException {
+        ByteBuffer node = ByteBuffer.allocate(DIGEST_SIZE);
+        readFully(tree, node, levelOffsets[level] + index * DIGEST_SIZE);
+        return node.array();
+    }
+
+    private void writeNode(final int level, final long index, final byte[] digest) throws IOException {
+        writeFully(tree, ByteBuffer.wrap(digest), levelOffsets[level] + index * DIGEST_SIZE);
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n == -1) throw new EOFException("Unexpected end of file");
+            position += n;
+        }
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /************************************************************
+     *                         Getters                          *
+     ************************************************************/
+
+    public int getLeafSize() {
+        return leafSize;
+    }
+
+    public long getLeafCount() {
+        return levelSizes[0];
+    }
+
+    /**
+     * @return the number of leaves read from the file since the tree was opened
+     */
+    public long getLeavesRead() {
+        return leavesRead;
+    }
+}
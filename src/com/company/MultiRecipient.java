@@ -0,0 +1,152 @@
+package com.company;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static com.company.KMAC.*;
+
+/**
+ * Encrypts one payload for many EC recipients. The payload is encrypted once with the symmetric
+ * KMACXOF256 cryptogram under a random 512-bit data key, and only that data key is wrapped for
+ * every recipient with the Z = k*G, W = k*V scheme of the EC encryption service.
+ *
+ * The output file holds the number of recipients on the first line, one hex line per recipient
+ * with the wrapped key id || Z || c || t, and finally the hex line of the payload cryptogram.
+ * The id is a short digest of the public key of the recipient (see keyId), so decryption only
+ * runs the ladder W = s*Z for the headers of its own key instead of for every header. It makes
+ * the recipients of a file recognizable to anyone holding their public keys.
+ *
+ * The data key and the payload cryptogram come from the CryptoService given to the
+ * constructor, so an instance holds no state of its own and can be shared between threads.
+ */
+public class MultiRecipient {
+
+    /**
+     * length of the data key in bytes
+     */
+    private static final int KEY_LENGTH = 64;
+
+    /**
+     * length of the key id in front of every header in bytes
+     */
+    private static final int KEY_ID_LENGTH = 8;
+
+    private final CryptoService crypto;
+
+    /**
+     * @param crypto the service that draws the data keys and encrypts the payloads
+     */
+    public MultiRecipient(final CryptoService crypto) {
+        this.crypto = crypto;
+    }
+
+    /**
+     * Encrypts a payload for every given public key. The key wraps are computed in parallel.
+     * @param m the payload to be encrypted
+     * @param V the public keys of the recipients
+     * @param pool source of the ephemeral key pairs
+     * @param outputFile the file the cryptogram is written to
+     * @throws IOException if the output file can not be written
+     */
+    public void encrypt(byte[] m, Point[] V, EphemeralKeyPool pool, File outputFile) throws IOException {
+        byte[] key = crypto.randomBytes(KEY_LENGTH);
+        byte[] payload = crypto.encryptKMAC(m, key);
+
+        EphemeralKeyPool.EphemeralKey[] k = pool.takeAll(V.length);
+        byte[][] headers = new byte[V.length][];
+        IntStream.range(0, V.length).parallel().forEach(i -> headers[i] = wrap(key, V[i], k[i]));
+        Arrays.fill(key, (byte) 0);
+
+        try (FileWriter fw = new FileWriter(outputFile)) {
+            fw.write(V.length + "\n");
+            for (byte[] header : headers) {
+                fw.write(bytesToHexString(header) + "\n");
+            }
+            fw.write(bytesToHexString(payload) + "\n");
+        }
+    }
+
+    /**
+     * Decrypts a multi-recipient cryptogram with the passphrase of one of its recipients.
+     * @param inputFile the cryptogram written by encrypt
+     * @param passphrase the passphrase of the recipient
+     * @return the decrypted payload
+     * @throws IOException if the input file can not be read
+     * @throws IllegalArgumentException if no key wrap belongs to the passphrase
+     */
+    public byte[] decrypt(File inputFile, String passphrase) throws IOException {
+        List<String> lines = Files.readAllLines(inputFile.toPath());
+        int n = Integer.parseInt(lines.get(0).trim());
+        BigInteger s = new BigInteger(CryptoService.privateKey(passphrase));
+        byte[] id = keyId(ECArithmetic.toAffine(ECArithmetic.exponentiationG(s)));
+
+        byte[] key = IntStream.range(0, n).parallel()
+                .mapToObj(i -> hexStringToBytes(lines.get(i + 1)))
+                .filter(header -> Arrays.equals(header, 0, KEY_ID_LENGTH, id, 0, KEY_ID_LENGTH))
+                .map(header -> unwrap(header, s))
+                .filter(unwrapped -> unwrapped != null)
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Tags didn't match"));
+        return crypto.decryptKMAC(hexStringToBytes(lines.get(n + 1)), key);
+    }
+
+    /************************************************************
+     *                      Helper Methods                      *
+     ************************************************************/
+
+    /**
+     * @param V a public key
+     * @return the id that marks the headers of V, KMACXOF256("", encode(V), 64, "KID")
+     */
+    static byte[] keyId(Point V) {
+        return KMACXOF256("".getBytes(), ECArithmetic.encode(V), KEY_ID_LENGTH * 8, "KID".getBytes());
+    }
+
+    /**
+     * Wraps the data key for one recipient.
+     * @param key the data key
+     * @param V the public key of the recipient
+     * @param k the ephemeral key pair, destroyed once it has been used
+     * @return id || Z || c || t
+     */
+    private static byte[] wrap(byte[] key, Point V, EphemeralKeyPool.EphemeralKey k) {
+        BigInteger Wx = ECArithmetic.exponentiationX(V, new BigInteger(k.getK()));
+        Point Z = k.getZ();
+        k.destroy();
+
+        byte[] keka = KMACXOF256(Wx.toByteArray(), "".getBytes(), 1024, "PK".getBytes());
+        byte[] ke = Arrays.copyOfRange(keka, 0, 64);
+        byte[] ka = Arrays.copyOfRange(keka, 64, 128);
+
+        byte[] c = xorBytes(KMACXOF256(ke, "".getBytes(), KEY_LENGTH * 8, "PKE".getBytes()), key);
+        byte[] t = KMACXOF256(ka, key, 512, "PKA".getBytes());
+        return concat(concat(concat(keyId(V), ECArithmetic.encode(Z)), c), t);
+    }
+
+    /**
+     * Tries to unwrap the data key from one recipient header.
+     * @param header id || Z || c || t
+     * @param s the private key of the recipient
+     * @return the data key, or null if the header does not belong to s
+     */
+    private static byte[] unwrap(byte[] header, BigInteger s) {
+        int zEnd = KEY_ID_LENGTH + ECArithmetic.ENCODED_LENGTH;
+        Point Z = ECArithmetic.decode(Arrays.copyOfRange(header, KEY_ID_LENGTH, zEnd));
+        byte[] c = Arrays.copyOfRange(header, zEnd, zEnd + KEY_LENGTH);
+        byte[] t = Arrays.copyOfRange(header, zEnd + KEY_LENGTH, header.length);
+
+        BigInteger Wx = ECArithmetic.exponentiationX(Z, s);
+        byte[] keka = KMACXOF256(Wx.toByteArray(), "".getBytes(), 1024, "PK".getBytes());
+        byte[] ke = Arrays.copyOfRange(keka, 0, 64);
+        byte[] ka = Arrays.copyOfRange(keka, 64, 128);
+
+        byte[] key = xorBytes(KMACXOF256(ke, "".getBytes(), KEY_LENGTH * 8, "PKE".getBytes()), c);
+        return Arrays.equals(t, KMACXOF256(ka, key, 512, "PKA".getBytes())) ? key : null;
+    }
+}
@@ -2,9 +2,12 @@ package com.company;
 
 import java.math.BigInteger;
 
-public class Point {
-    private BigInteger Px;
-    private BigInteger Py;
+/**
+ * An affine point of ed448. Points are immutable, so they can be shared between threads.
+ */
+public final class Point {
+    private final BigInteger Px;
+    private final BigInteger Py;
 
     public Point(BigInteger Px, BigInteger Py) {
         this.Px = Px;
@@ -15,10 +18,6 @@ public class Point {
 
     public BigInteger getPy() { return Py; }
 
-    public void setPx(BigInteger thePx) { this.Px = thePx; }
-
-    public void setPy(BigInteger thePy) { this.Py = thePy; }
-
     @Override
     public String toString() {
         String s = "";
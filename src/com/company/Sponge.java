@@ -0,0 +1,227 @@
+package com.company;
+
+import java.util.Arrays;
+
+/**
+ * An incremental Keccak sponge. Input can be absorbed and output squeezed in pieces of any
+ * size, so arbitrarily long messages are processed in constant memory. The output is identical
+ * to the one shot SHAKE256, cSHAKE256 and KMACXOF256 functions of KMAC, which create their
+ * instances through the factory methods there.
+ */
+public class Sponge {
+
+    /**
+     * rate in bytes
+     */
+    private final int rate;
+
+    /**
+     * domain separation byte appended to the message (0x1F for SHAKE, 0x04 for cSHAKE)
+     */
+    private final byte domain;
+
+    /**
+     * whether the domain byte and the final pad bit share a byte when they meet (FIPS 202),
+     * rather than the domain byte completing the block on its own
+     */
+    private final boolean mergedPadding;
+
+    /**
+     * bytes absorbed right before padding, e.g. right_encode(0) of KMACXOF256
+     */
+    private final byte[] trailer;
+
+    private final long[] state;
+
+    private final byte[] buffer;
+
+    private int pos;
+
+    private boolean squeezing;
+
+    /**
+     * Creates an empty sponge.
+     * @param capacity the capacity in bits see section 4 FIPS 202.
+     * @param domain the domain separation byte appended to the message
+     * @param mergedPadding whether the domain byte takes the final pad bit when it ends a block
+     * @param trailer bytes absorbed after the message and before the domain byte
+     */
+    Sponge(int capacity, byte domain, boolean mergedPadding, byte[] trailer) {
+        this.rate = (1600 - capacity) / 8;
+        this.domain = domain;
+        this.mergedPadding = mergedPadding;
+        this.trailer = trailer;
+        this.state = new long[25];
+        this.buffer = new byte[rate];
+    }
+
+    // copy constructor, see copy
+    private Sponge(Sponge other) {
+        this.rate = other.rate;
+        this.domain = other.domain;
+        this.mergedPadding = other.mergedPadding;
+        this.trailer = other.trailer;
+        this.state = other.state.clone();
+        this.buffer = other.buffer.clone();
+        this.pos = other.pos;
+        this.squeezing = other.squeezing;
+    }
+
+    /**
+     * Forks the sponge. The copy continues from the current state independently, so a common
+     * prefix (e.g. the key and customization string of KMACXOF256) is absorbed only once.
+     * @return an independent copy of this sponge
+     */
+    public Sponge copy() {
+        return new Sponge(this);
+    }
+
+    /**
+     * Resets this sponge to the state of another one built with the same parameters, without
+     * allocating, e.g. to start every message from a sponge that already absorbed a fixed prefix.
+     * @param other the sponge whose state is copied
+     */
+    void restore(Sponge other) {
+        if (other.rate != rate || other.domain != domain
+                || !Arrays.equals(other.trailer, trailer)) {
+            throw new IllegalArgumentException("Sponges have different parameters.");
+        }
+        System.arraycopy(other.state, 0, state, 0, state.length);
+        System.arraycopy(other.buffer, 0, buffer, 0, other.pos);
+        this.pos = other.pos;
+        this.squeezing = other.squeezing;
+    }
+
+    /**
+     * Absorbs zero bytes up to the end of the current block, the padding of bytepad.
+     */
+    void padBlock() {
+        if (squeezing) throw new IllegalStateException("Cannot absorb after squeezing started.");
+        if (pos == 0) return;
+        for (int i = pos; i < rate; i++) {
+            buffer[i] = 0;
+        }
+        absorbBlock();
+    }
+
+    /**
+     * Absorbs more input.
+     * @param in the input bytes
+     */
+    public void absorb(byte[] in) {
+        absorb(in, 0, in.length);
+    }
+
+    /**
+     * Absorbs more input.
+     * @param in the array holding the input
+     * @param off offset of the input in the array
+     * @param len number of input bytes
+     */
+    public void absorb(byte[] in, int off, int len) {
+        if (squeezing) throw new IllegalStateException("Cannot absorb after squeezing started.");
+        CryptoMetrics.absorbed(len);
+        while (len > 0) {
+            int n = Math.min(len, rate - pos);
+            System.arraycopy(in, off, buffer, pos, n);
+            pos += n;
+            off += n;
+            len -= n;
+            if (pos == rate) {
+                absorbBlock();
+            }
+        }
+    }
+
+    /**
+     * Squeezes the next output bytes. The first call pads the message.
+     * @param out the array receiving the output
+     * @param off offset in the array
+     * @param len number of output bytes
+     */
+    public void squeeze(byte[] out, int off, int len) {
+        squeeze(out, off, len, false);
+    }
+
+    /**
+     * Squeezes the given number of output bytes.
+     * @param len number of output bytes
+     * @return the next len output bytes
+     */
+    public byte[] squeeze(int len) {
+        byte[] out = new byte[len];
+        squeeze(out, 0, len, false);
+        return out;
+    }
+
+    /**
+     * Squeezes the next output bytes and xors them into the array, as a keystream.
+     * @param buf the array to xor the output into
+     * @param off offset in the array
+     * @param len number of output bytes
+     */
+    public void squeezeXor(byte[] buf, int off, int len) {
+        squeeze(buf, off, len, true);
+    }
+
+    /************************************************************
+     *                      Helper Methods                      *
+     ************************************************************/
+
+    // writes (or xors) the next len output bytes into out[off, off + len)
+    private void squeeze(byte[] out, int off, int len, boolean xor) {
+        CryptoMetrics.squeezed(len);
+        if (!squeezing) {
+            pad();
+            squeezing = true;
+            pos = 0;
+        }
+        while (len > 0) {
+            if (pos == rate) {
+                KMAC.keccakf(state);
+                pos = 0;
+            }
+            int n = Math.min(len, rate - pos);
+            for (int i = 0; i < n; i++) {
+                byte b = (byte) (state[(pos + i) >>> 3] >>> (8 * ((pos + i) & 7)));
+                out[off + i] = xor ? (byte) (out[off + i] ^ b) : b;
+            }
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    // absorbs the trailer, the domain byte and the 10*1 padding
+    private void pad() {
+        absorb(trailer, 0, trailer.length);
+        if (mergedPadding && pos == rate - 1) {
+            buffer[pos++] = (byte) (domain | 0x80);
+            absorbBlock();
+            return;
+        }
+        buffer[pos++] = domain;
+        if (pos == rate) {
+            absorbBlock();
+        } else {
+            for (int i = pos; i < rate; i++) {
+                buffer[i] = 0;
+            }
+            buffer[rate - 1] = (byte) 0x80;
+            absorbBlock();
+        }
+    }
+
+    // xors the full buffer into the state and applies the permutation
+    private void absorbBlock() {
+        for (int j = 0; j < rate / 8; j++) {
+            long word = 0L;
+            for (int i = 0; i < 8; i++) {
+                word |= (((long) buffer[8 * j + i]) & 0xff) << (8 * i);
+            }
+            state[j] ^= word;
+        }
+        KMAC.keccakf(state);
+        pos = 0;
+    }
+}
@@ -0,0 +1,167 @@
+package com.company;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * In-place version of the symmetric encryption service over a caller's buffer, for message
+ * oriented callers that reuse their buffers. The cryptogram is the same as the one of
+ * Main.encryptKMAC,
+ *   z (NONCE_LENGTH) || c (message length) || t (TAG_LENGTH)
+ * laid out in the buffer at an offset, so a message written at off + NONCE_LENGTH with
+ * TAG_LENGTH bytes free behind it is encrypted where it is, and decrypted back to the same place.
+ *
+ * An instance keeps its sponges and scratch arrays, so once it is warm an operation allocates
+ * nothing besides what the SecureRandom does internally. The sponges that absorbed the
+ * customization strings S, SKE and SKA are kept as templates and every operation restores its
+ * working sponges from them. An instance is not thread safe, use one per thread.
+ */
+public class SymmetricCipher {
+
+    /**
+     * bytes of the nonce z in front of the cryptogram
+     */
+    public static final int NONCE_LENGTH = 64;
+
+    /**
+     * bytes of the tag t behind the cryptogram
+     */
+    public static final int TAG_LENGTH = 64;
+
+    /**
+     * bytes a cryptogram is longer than its message
+     */
+    public static final int OVERHEAD = NONCE_LENGTH + TAG_LENGTH;
+
+    private static final int RATE = 136;
+
+    private final SecureRandom random;
+
+    private final Sponge keyTemplate = KMAC.KMACXOF256PrefixSponge("S".getBytes());
+
+    private final Sponge encryptionTemplate = KMAC.KMACXOF256PrefixSponge("SKE".getBytes());
+
+    private final Sponge authenticationTemplate = KMAC.KMACXOF256PrefixSponge("SKA".getBytes());
+
+    private final Sponge key = keyTemplate.copy();
+
+    private final Sponge keystream = encryptionTemplate.copy();
+
+    private final Sponge tag = authenticationTemplate.copy();
+
+    private final byte[] nonce = new byte[NONCE_LENGTH];
+
+    private final byte[] keka = new byte[128];
+
+    private final byte[] expectedTag = new byte[TAG_LENGTH];
+
+    private final byte[] encoding = new byte[9];
+
+    /**
+     * @param random the source of the nonces
+     */
+    public SymmetricCipher(final SecureRandom random) {
+        this.random = random;
+    }
+
+    public SymmetricCipher() {
+        this(new SecureRandom());
+    }
+
+    /************************************************************
+     *                        Operations                        *
+     ************************************************************/
+
+    /**
+     * Encrypts the message buf[off + NONCE_LENGTH, off + NONCE_LENGTH + len) in place and writes
+     * the nonce in front of it and the tag behind it.
+     * @param buf the buffer
+     * @param off offset of the cryptogram in the buffer
+     * @param len length of the message
+     * @param pw the passphrase or key bytes
+     * @return the length of the cryptogram, len + OVERHEAD, starting at off
+     */
+    public int encrypt(final byte[] buf, final int off, final int len, final byte[] pw) {
+        checkBounds(buf, off, len);
+        random.nextBytes(nonce);
+        System.arraycopy(nonce, 0, buf, off, NONCE_LENGTH);
+        deriveKeys(buf, off, pw);
+
+        int m = off + NONCE_LENGTH;
+        tag.absorb(buf, m, len);
+        keystream.squeezeXor(buf, m, len);
+        tag.squeeze(buf, m + len, TAG_LENGTH);
+        return len + OVERHEAD;
+    }
+
+    /**
+     * Decrypts the cryptogram buf[off, off + len) in place. The message ends up at
+     * buf[off + NONCE_LENGTH, off + len - TAG_LENGTH); if the tags don't match that range is
+     * zeroed instead.
+     * @param buf the buffer
+     * @param off offset of the cryptogram in the buffer
+     * @param len length of the cryptogram
+     * @param pw the passphrase or key bytes
+     * @return the length of the message, len - OVERHEAD, starting at off + NONCE_LENGTH
+     * @throws IllegalArgumentException if the tags don't match
+     */
+    public int decrypt(final byte[] buf, final int off, final int len, final byte[] pw) {
+        if (len < OVERHEAD) throw new IllegalArgumentException("Cryptogram is too short");
+        int mLen = len - OVERHEAD;
+        checkBounds(buf, off, mLen);
+        deriveKeys(buf, off, pw);
+
+        int m = off + NONCE_LENGTH;
+        keystream.squeezeXor(buf, m, mLen);
+        tag.absorb(buf, m, mLen);
+        tag.squeeze(expectedTag, 0, TAG_LENGTH);
+        if (!Arrays.equals(expectedTag, 0, TAG_LENGTH, buf, m + mLen, m + mLen + TAG_LENGTH)) {
+            Arrays.fill(buf, m, m + mLen, (byte) 0);
+            throw new IllegalArgumentException("Tags didn't match");
+        }
+        return mLen;
+    }
+
+    /************************************************************
+     *                      Helper Methods                      *
+     ************************************************************/
+
+    // ke || ka = KMACXOF256(z || pw, "", 1024, "S"), then keys the keystream and tag sponges
+    private void deriveKeys(final byte[] buf, final int off, final byte[] pw) {
+        key.restore(keyTemplate);
+        absorbKey(key, buf, off, NONCE_LENGTH, pw);
+        key.squeeze(keka, 0, keka.length);
+
+        keystream.restore(encryptionTemplate);
+        absorbKey(keystream, keka, 0, 64, null);
+        tag.restore(authenticationTemplate);
+        absorbKey(tag, keka, 64, 64, null);
+    }
+
+    // absorbs bytepad(encode_string(a || b), 136) of a key held in up to two pieces
+    private void absorbKey(final Sponge sponge, final byte[] a, final int aOff, final int aLen, final byte[] b) {
+        int bLen = b == null ? 0 : b.length;
+        sponge.absorb(encoding, 0, leftEncode(RATE));
+        sponge.absorb(encoding, 0, leftEncode(8L * (aLen + bLen)));
+        sponge.absorb(a, aOff, aLen);
+        if (b != null) sponge.absorb(b, 0, bLen);
+        sponge.padBlock();
+    }
+
+    // writes left_encode(x) to the scratch array the way KMAC.leftEncode does, n followed by
+    // the bytes of x lowest first, and returns its length
+    private int leftEncode(final long x) {
+        int n = Math.max(1, (64 - Long.numberOfLeadingZeros(x) + 7) / 8);
+        encoding[0] = (byte) n;
+        for (int i = 0; i < n; i++) {
+            encoding[1 + i] = (byte) (x >>> (8 * i));
+        }
+        return n + 1;
+    }
+
+    private static void checkBounds(final byte[] buf, final int off, final int len) {
+        if (off < 0 || len < 0 || (long) off + len + OVERHEAD > buf.length) {
+            throw new IllegalArgumentException("Cryptogram does not fit in the buffer.");
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.company;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static com.company.KMAC.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs every operation of one shared CryptoService (and a MultiRecipient on top of it) from
+ * several threads at once and checks each result against the answer computed on a single
+ * thread before, the way ConcurrencyStressHarness does for a fixed number of rounds.
+ */
+class CryptoServiceConcurrencyTest {
+
+    private static final String PASSPHRASE = "concurrency test";
+
+    private static final int THREADS = 4;
+
+    private static final int ROUNDS = 3;
+
+    private static final int OPERATIONS = 8;
+
+    private static CryptoService service;
+
+    private static EphemeralKeyPool pool;
+
+    private static byte[] data;
+
+    private static byte[] s;
+
+    private static Point V;
+
+    private static byte[] digest;
+
+    private static byte[][] signature;
+
+    private static byte[] cryptogram;
+
+    @TempDir
+    static Path dir;
+
+    @BeforeAll
+    static void knownAnswers() {
+        service = new CryptoService(new SecureRandom());
+        pool = new EphemeralKeyPool(4, 0, new SecureRandom());
+        data = new byte[1024];
+        new SplittableRandom(487).nextBytes(data);
+        s = CryptoService.privateKey(PASSPHRASE);
+        V = service.publicKeysEC(PASSPHRASE)[0];
+        digest = KMACXOF256("".getBytes(), data, 512, "D".getBytes());
+        signature = service.signEC(data, s);
+        cryptogram = service.encryptKMAC(data, PASSPHRASE.getBytes());
+    }
+
+    @AfterAll
+    static void closePool() {
+        pool.close();
+    }
+
+    @Test
+    void sharedServiceGivesTheSingleThreadedAnswers() throws Exception {
+        BigInteger Vx = V.getPx();
+        BigInteger Vy = V.getPy();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int first = t;
+                workers.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < ROUNDS * OPERATIONS; i++) {
+                        operation(first, (first + i) % OPERATIONS);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(Vx, V.getPx(), "the shared public key changed");
+        assertEquals(Vy, V.getPy(), "the shared public key changed");
+    }
+
+    @Test
+    void windowTableOfGIsACopy() {
+        BigInteger[] before = ECArithmetic.exponentiationG(BigInteger.valueOf(487));
+        BigInteger[][] table = ECArithmetic.getGTable();
+        for (BigInteger[] entry : table) {
+            Arrays.fill(entry, BigInteger.ZERO);
+        }
+        BigInteger[] after = ECArithmetic.exponentiationG(BigInteger.valueOf(487));
+        assertTrue(ECArithmetic.compare(ECArithmetic.toAffine(before), ECArithmetic.toAffine(after)));
+        assertNotSame(table, ECArithmetic.getGTable());
+    }
+
+    // runs one operation and checks its result against the known answer
+    private static void operation(int thread, int op) throws IOException {
+        switch (op) {
+            case 0 -> assertArrayEquals(digest, KMACXOF256("".getBytes(), data, 512, "D".getBytes()), "hash differs");
+            case 1 -> assertArrayEquals(data, service.decryptKMAC(service.encryptKMAC(data, PASSPHRASE.getBytes()),
+                    PASSPHRASE.getBytes()), "symmetric round trip differs");
+            case 2 -> assertArrayEquals(data, service.decryptKMAC(cryptogram, PASSPHRASE.getBytes()),
+                    "symmetric decryption differs");
+            case 3 -> {
+                EphemeralKeyPool.EphemeralKey k = pool.take();
+                BigInteger Wx = ECArithmetic.exponentiationX(V, new BigInteger(k.getK()));
+                assertArrayEquals(data, service.decryptEC(service.encryptEC(data, k, Wx), PASSPHRASE),
+                        "EC round trip differs");
+            }
+            case 4 -> {
+                byte[][] again = service.signEC(data, s);
+                assertArrayEquals(signature[0], again[0], "signature differs");
+                assertArrayEquals(signature[1], again[1], "signature differs");
+                assertTrue(service.verifyEC(data, again[0], again[1], V), "signature does not verify");
+            }
+            case 5 -> {
+                Path file = Files.write(dir.resolve("prehash-" + thread), data);
+                byte[][] prehash = service.signPrehashEC(file, s);
+                assertTrue(service.verifyPrehashEC(file, prehash[0], prehash[1], V), "prehash signature does not verify");
+                assertFalse(service.verifyEC(service.prehashEC(file), prehash[0], prehash[1], V),
+                        "prehash signature verifies as a pure one");
+            }
+            case 6 -> assertTrue(ECArithmetic.compare(V, service.publicKeysEC(PASSPHRASE)[0]), "public key differs");
+            case 7 -> {
+                File file = dir.resolve("multi-" + thread).toFile();
+                MultiRecipient multi = new MultiRecipient(service);
+                multi.encrypt(data, new Point[] {V, V}, pool, file);
+                assertArrayEquals(data, multi.decrypt(file, PASSPHRASE), "multi-recipient round trip differs");
+                assertThrows(IllegalArgumentException.class, () -> multi.decrypt(file, "not a recipient"));
+            }
+            default -> throw new IllegalArgumentException("Unknown operation " + op);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.company;
+
+import java.security.MessageDigest;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.Test;
+
+import static com.company.KMAC.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that the algorithm names of KMACProvider resolve to the function and strength they
+ * name, whatever the customization string contains.
+ */
+class KMACProviderTest {
+
+    private static final byte[] KEY = "key".getBytes();
+
+    private static final byte[] DATA = "data".getBytes();
+
+    @Test
+    void customizationContaining128DoesNotSelectKMACXOF128() throws Exception {
+        Mac mac = Mac.getInstance("KMACXOF256/v128/x", new KMACProvider());
+        assertEquals(64, mac.getMacLength());
+        mac.init(new SecretKeySpec(KEY, "KMAC"));
+        assertArrayEquals(KMACXOF256(KEY, DATA, 512, "v128/x".getBytes()), mac.doFinal(DATA));
+    }
+
+    @Test
+    void customizationContaining128DoesNotSelectCSHAKE128() throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("cSHAKE256/abc128/", new KMACProvider());
+        assertEquals(64, digest.getDigestLength());
+        Sponge expected = cSHAKE256Sponge(new byte[0], "abc128/".getBytes());
+        expected.absorb(DATA);
+        assertArrayEquals(expected.squeeze(64), digest.digest(DATA));
+    }
+
+    @Test
+    void initWithoutParametersDropsEarlierParameters() throws Exception {
+        Mac mac = Mac.getInstance("KMACXOF256/x", new KMACProvider());
+        mac.init(new SecretKeySpec(KEY, "KMAC"), new KMACParameterSpec("other".getBytes(), 1024));
+        assertEquals(128, mac.getMacLength());
+        mac.init(new SecretKeySpec(KEY, "KMAC"));
+        assertEquals(64, mac.getMacLength());
+        assertArrayEquals(KMACXOF256(KEY, DATA, 512, "x".getBytes()), mac.doFinal(DATA));
+    }
+
+    @Test
+    void prefix128SelectsThe128BitFunctions() throws Exception {
+        Mac mac = Mac.getInstance("KMACXOF128/x", new KMACProvider());
+        assertEquals(32, mac.getMacLength());
+        mac.init(new SecretKeySpec(KEY, "KMAC"));
+        assertArrayEquals(KMACXOF128(KEY, DATA, 256, "x".getBytes()), mac.doFinal(DATA));
+        assertEquals(32, MessageDigest.getInstance("cSHAKE128/x", new KMACProvider()).getDigestLength());
+    }
+}
@@ -0,0 +1,105 @@
+package com.company;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that the root an incrementally updated MerkleTree reports equals the root of a fresh
+ * build of the same bytes and the root computed in memory from all leaf digests.
+ */
+class MerkleTreeTest {
+
+    private static final int LEAF_SIZE = 4096;
+
+    private static final int LENGTH = 300_000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void updateRangesAfterAnInPlaceWrite() throws IOException {
+        Path file = write("in-place", bytes(LENGTH, 1));
+        try (MerkleTree tree = MerkleTree.build(file, sidecar(file), LEAF_SIZE)) {
+            byte[] data = Files.readAllBytes(file);
+            Arrays.fill(data, 100, 108, (byte) 'X');
+            Arrays.fill(data, 200_000, 210_000, (byte) 'Y');
+            Files.write(file, data);
+            byte[] root = tree.updateRanges(new long[] {100, 8}, new long[] {200_000, 10_000});
+            assertArrayEquals(root, tree.root());
+            assertRoot(file, root);
+        }
+    }
+
+    @Test
+    void updateLeavesAfterAnInPlaceWrite() throws IOException {
+        Path file = write("leaves", bytes(LENGTH, 2));
+        try (MerkleTree tree = MerkleTree.build(file, sidecar(file), LEAF_SIZE)) {
+            byte[] data = Files.readAllBytes(file);
+            data[0] ^= 1;
+            data[LENGTH - 1] ^= 1;
+            Files.write(file, data);
+            assertRoot(file, tree.updateLeaves(0, (LENGTH - 1) / LEAF_SIZE));
+        }
+    }
+
+    @Test
+    void updateRangesAfterTheFileGrew() throws IOException {
+        Path file = write("grow", bytes(LENGTH, 3));
+        try (MerkleTree tree = MerkleTree.build(file, sidecar(file), LEAF_SIZE)) {
+            byte[] data = Files.readAllBytes(file);
+            Arrays.fill(data, 100, 108, (byte) 'X');
+            byte[] grown = Arrays.copyOf(data, LENGTH + 5000);
+            System.arraycopy(bytes(5000, 4), 0, grown, LENGTH, 5000);
+            Files.write(file, grown);
+            assertRoot(file, tree.updateRanges(new long[] {100, 8}, new long[] {LENGTH, 5000}));
+        }
+    }
+
+    @Test
+    void updateRangesAfterTheFileShrank() throws IOException {
+        Path file = write("shrink", bytes(LENGTH, 5));
+        try (MerkleTree tree = MerkleTree.build(file, sidecar(file), LEAF_SIZE)) {
+            int length = LENGTH - 10_000;
+            Files.write(file, Arrays.copyOf(Files.readAllBytes(file), length));
+            assertRoot(file, tree.updateRanges(new long[] {length - 1, 1}));
+        }
+    }
+
+    // checks a root against a fresh build of a copy of the file and against the in-memory root
+    private void assertRoot(final Path file, final byte[] root) throws IOException {
+        Path copy = Files.copy(file, dir.resolve(file.getFileName() + ".copy"));
+        try (MerkleTree fresh = MerkleTree.build(copy, sidecar(copy), LEAF_SIZE)) {
+            assertArrayEquals(fresh.root(), root, "root differs from a fresh build");
+        }
+
+        byte[] data = Files.readAllBytes(file);
+        byte[][] leaves = new byte[(data.length + LEAF_SIZE - 1) / LEAF_SIZE][];
+        for (int i = 0; i < leaves.length; i++) {
+            leaves[i] = MerkleTree.leafDigest(Arrays.copyOfRange(data, i * LEAF_SIZE,
+                    Math.min(data.length, (i + 1) * LEAF_SIZE)));
+        }
+        assertArrayEquals(MerkleTree.root(leaves, data.length, LEAF_SIZE), root, "root differs from the in-memory root");
+    }
+
+    private Path write(final String name, final byte[] data) throws IOException {
+        return Files.write(dir.resolve(name + ".bin"), data);
+    }
+
+    private static Path sidecar(final Path file) {
+        return Path.of(file + ".mt");
+    }
+
+    private static byte[] bytes(final int length, final long seed) {
+        byte[] data = new byte[length];
+        new SplittableRandom(seed).nextBytes(data);
+        return data;
+    }
+}